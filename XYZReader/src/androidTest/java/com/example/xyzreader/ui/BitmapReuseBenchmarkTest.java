@@ -0,0 +1,127 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Decodes the thumbnails of a scripted 5,000-row scroll twice: once handing rows that leave the
+ * screen to a {@link BitmapPool} for the next decodes, once leaving them to the garbage collector
+ * as the grid used to. Reports the heap allocated and the collections run by each.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapReuseBenchmarkTest {
+    private static final String TAG = "BitmapReuseBenchmark";
+
+    private static final int ITEMS = 5000;
+    /** Rows on screen at once; a row is released when it scrolls past them. */
+    private static final int VISIBLE = 12;
+    private static final int THUMBNAIL_WIDTH = 360;
+    private static final int POOL_BYTES = 4 * 1024 * 1024;
+    /** Source sizes cycled through, for the grid's mix of aspect ratios. */
+    private static final int[][] SOURCE_SIZES = {{600, 400}, {600, 900}, {600, 600}, {600, 450}};
+
+    private byte[][] mSources;
+    private float[] mAspectRatios;
+
+    @Before
+    public void setUp() {
+        assumeTrue(BitmapPool.isSupported());
+
+        mSources = new byte[SOURCE_SIZES.length][];
+        mAspectRatios = new float[SOURCE_SIZES.length];
+        for (int i = 0; i < SOURCE_SIZES.length; i++) {
+            final int width = SOURCE_SIZES[i][0];
+            final int height = SOURCE_SIZES[i][1];
+            Bitmap source = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            new Canvas(source).drawColor(Color.rgb(40 * i, 90, 160));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            source.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            source.recycle();
+            mSources[i] = out.toByteArray();
+            mAspectRatios[i] = (float) width / height;
+        }
+    }
+
+    @Test
+    public void pooledScrollAllocatesLessAndCollectsLess() {
+        // Warm up the decoder and the JIT so neither run pays for them.
+        scroll(POOL_BYTES, 200);
+
+        final Result unpooled = scroll(0, ITEMS);
+        final Result pooled = scroll(POOL_BYTES, ITEMS);
+        Log.i(TAG, "Unpooled: " + unpooled);
+        Log.i(TAG, "Pooled: " + pooled);
+
+        assertTrue("Pooled " + pooled + " vs unpooled " + unpooled,
+                pooled.allocatedBytes * 2 < unpooled.allocatedBytes);
+        assertTrue("Pooled " + pooled + " vs unpooled " + unpooled,
+                pooled.collections <= unpooled.collections);
+    }
+
+    /** Scrolls past {@code items} rows; a pool of 0 bytes takes nothing, so nothing is reused. */
+    private Result scroll(int poolBytes, int items) {
+        final BitmapPool pool = new BitmapPool(poolBytes);
+        final ArrayDeque<Bitmap> onScreen = new ArrayDeque<Bitmap>(VISIBLE + 1);
+
+        Runtime.getRuntime().gc();
+        final long collectionsBefore = collectionCount();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < items; i++) {
+            final int source = i % mSources.length;
+            final int height = Math.round(THUMBNAIL_WIDTH / mAspectRatios[source]);
+            onScreen.addLast(ImageDecoder.decode(mSources[source], THUMBNAIL_WIDTH, height,
+                    Bitmap.Config.RGB_565, pool));
+            if (onScreen.size() > VISIBLE) {
+                Bitmap gone = onScreen.removeFirst();
+                if (!pool.put(gone)) {
+                    gone.recycle();
+                }
+            }
+        }
+        Debug.stopAllocCounting();
+
+        Result result = new Result();
+        result.allocatedBytes = Debug.getThreadAllocSize();
+        result.collections = collectionCount() - collectionsBefore;
+        result.pool = pool.toString();
+        for (Bitmap bitmap : onScreen) {
+            bitmap.recycle();
+        }
+        return result;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long collectionCount() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return Long.parseLong(Debug.getRuntimeStat("art.gc.gc-count"));
+        }
+        return Debug.getGlobalGcInvocationCount();
+    }
+
+    private static class Result {
+        long allocatedBytes;
+        long collections;
+        String pool;
+
+        @Override
+        public String toString() {
+            return allocatedBytes / 1024 + " KB allocated, " + collections + " GCs, " + pool;
+        }
+    }
+}
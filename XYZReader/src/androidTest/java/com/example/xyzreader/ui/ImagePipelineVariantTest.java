@@ -0,0 +1,207 @@
+package com.example.xyzreader.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads detail photos through {@link ImagePipeline} against a {@link MockWebServer} standing in
+ * for an image host. Feed URLs are answered with a JPEG of {@link #ORIGINAL_WIDTH}; {@code ?w=}
+ * requests are answered, depending on the test, with a JPEG of the requested width, with 404 or
+ * with bytes that are not an image. Each test gets a pipeline with its own caches, so every load
+ * goes through the fetch and decode stages.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImagePipelineVariantTest {
+    private static final int ORIGINAL_WIDTH = 600;
+    private static final int ORIGINAL_HEIGHT = 400;
+    private static final int VIEW_WIDTH = 150;
+    private static final int VIEW_HEIGHT = 100;
+    /** The template's width bucket for {@link #VIEW_WIDTH} at a density of 1. */
+    private static final int VARIANT_WIDTH = 192;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final int RESIZE = 0;
+    private static final int NOT_FOUND = 1;
+    private static final int NOT_AN_IMAGE = 2;
+
+    private MockWebServer mServer;
+    private File mDiskDirectory;
+    private ImagePipeline mPipeline;
+    private final List<String> mPaths = Collections.synchronizedList(new ArrayList<String>());
+    private volatile int mVariantMode;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                mPaths.add(request.getPath());
+                HttpUrl url = mServer.url(request.getPath());
+                String width = url.queryParameter("w");
+                if (width == null) {
+                    return image(ORIGINAL_WIDTH);
+                }
+                switch (mVariantMode) {
+                    case RESIZE:
+                        return image(Integer.parseInt(width));
+                    case NOT_FOUND:
+                        return new MockResponse().setResponseCode(404);
+                    default:
+                        return new MockResponse().setBody("<html>Not an image</html>");
+                }
+            }
+        });
+        mServer.start();
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDiskDirectory = new File(context.getCacheDir(), "image-pipeline-test");
+        deleteDiskDirectory();
+        mPipeline = new ImagePipeline(context.getApplicationContext(),
+                new ImageUrlTemplate("{url}?w={width}", 1f), mDiskDirectory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        deleteDiskDirectory();
+    }
+
+    @Test
+    public void usesResizedVariantAlone() throws InterruptedException {
+        mVariantMode = RESIZE;
+
+        Bitmap bitmap = load("/a.jpg");
+        assertNotNull(bitmap);
+        assertTrue(bitmap.getWidth() <= VARIANT_WIDTH);
+        assertEquals(Collections.singletonList("/a.jpg?w=" + VARIANT_WIDTH), mPaths);
+    }
+
+    @Test
+    public void fallsBackToFeedUrlOnNotFound() throws InterruptedException {
+        mVariantMode = NOT_FOUND;
+
+        assertNotNull(load("/a.jpg"));
+        assertEquals(Arrays.asList("/a.jpg?w=" + VARIANT_WIDTH, "/a.jpg"), mPaths);
+    }
+
+    @Test
+    public void fallsBackToFeedUrlOnUndecodableBody() throws InterruptedException {
+        mVariantMode = NOT_AN_IMAGE;
+
+        assertNotNull(load("/a.jpg"));
+        assertEquals(Arrays.asList("/a.jpg?w=" + VARIANT_WIDTH, "/a.jpg"), mPaths);
+    }
+
+    @Test
+    public void givesUpOnVariantsAfterThreeFailures() throws InterruptedException {
+        mVariantMode = NOT_FOUND;
+        assertNotNull(load("/0.jpg"));
+        mVariantMode = NOT_AN_IMAGE;
+        assertNotNull(load("/1.jpg"));
+        mVariantMode = NOT_FOUND;
+        assertNotNull(load("/2.jpg"));
+        assertEquals(6, mPaths.size());
+
+        // Abandoned: straight to the feed URL, even once the host starts resizing.
+        mVariantMode = RESIZE;
+        assertNotNull(load("/3.jpg"));
+        assertEquals(7, mPaths.size());
+        assertEquals("/3.jpg", mPaths.get(6));
+    }
+
+    @Test
+    public void successResetsFailureCount() throws InterruptedException {
+        mVariantMode = NOT_FOUND;
+        load("/0.jpg");
+        load("/1.jpg");
+        mVariantMode = RESIZE;
+        load("/2.jpg");
+        mVariantMode = NOT_FOUND;
+        load("/3.jpg");
+        load("/4.jpg");
+        mVariantMode = RESIZE;
+        mPaths.clear();
+
+        assertNotNull(load("/5.jpg"));
+        assertEquals(Collections.singletonList("/5.jpg?w=" + VARIANT_WIDTH), mPaths);
+    }
+
+    /** Loads a detail photo on the main thread and waits for its delivery. */
+    private Bitmap load(String path) throws InterruptedException {
+        final String url = mServer.url(path).toString();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Bitmap[] result = new Bitmap[1];
+        final ImagePipeline.Target target = new ImagePipeline.Target() {
+            @Override
+            public void onImageLoaded(String url, Bitmap bitmap, boolean immediate) {
+                result[0] = bitmap;
+                done.countDown();
+            }
+
+            @Override
+            public void onImageFailed(String url) {
+                done.countDown();
+            }
+        };
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPipeline.load(url, ImagePipeline.KIND_PHOTO, VIEW_WIDTH, VIEW_HEIGHT,
+                        ImagePipeline.PRIORITY_VISIBLE, target);
+            }
+        });
+        assertTrue("Timed out loading " + url, done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    private static MockResponse image(int width) {
+        Bitmap bitmap = Bitmap.createBitmap(width, width * ORIGINAL_HEIGHT / ORIGINAL_WIDTH,
+                Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawColor(Color.rgb(120, 140, 160));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return new MockResponse().setBody(new Buffer().write(out.toByteArray()));
+    }
+
+    private void deleteDiskDirectory() {
+        File[] files = mDiskDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDiskDirectory.delete();
+    }
+}
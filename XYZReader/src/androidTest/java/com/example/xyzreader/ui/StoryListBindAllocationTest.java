@@ -0,0 +1,136 @@
+package com.example.xyzreader.ui;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import com.example.xyzreader.R;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls a large list through a screenful of recycled holders, binding each one to a row it has
+ * not shown before, and counts the heap allocations made on the binding thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StoryListBindAllocationTest {
+    /** Holders in the recycled screenful. */
+    private static final int HOLDERS = 16;
+    private static final int BINDS = 10000;
+    /** Rows in the list, so that every counted bind shows a new row. */
+    private static final int ROWS = BINDS + HOLDERS;
+    /** Binding a holder to a new row must not allocate at all. */
+    private static final int ALLOCATION_BUDGET = 0;
+
+    private Context mContext;
+    private ImagePipeline mPipeline;
+    private DateLabelCache mDateLabels;
+    private StoryListActivity.ViewHolder[] mHolders;
+    private String[] mTitles;
+    private String[] mAuthors;
+    private String[] mThumbUrls;
+    private long[] mDates;
+    private float[] mAspectRatios;
+
+    @Before
+    public void setUp() {
+        mContext = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(),
+                R.style.Theme_Bacon);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPipeline = ImagePipeline.getInstance(mContext);
+                mDateLabels = DateLabelCache.getInstance(mContext);
+                PaletteCache paletteCache = PaletteCache.getInstance(mContext);
+                LayoutInflater inflater = LayoutInflater.from(mContext);
+                mHolders = new StoryListActivity.ViewHolder[HOLDERS];
+                for (int i = 0; i < HOLDERS; i++) {
+                    // Never attached, so binding starts no image loads.
+                    View view = inflater.inflate(R.layout.list_item_story, null, false);
+                    mHolders[i] = new StoryListActivity.ViewHolder(view, paletteCache, 0xFFEEEEEE);
+                }
+            }
+        });
+
+        mTitles = new String[ROWS];
+        mAuthors = new String[ROWS];
+        mThumbUrls = new String[ROWS];
+        mDates = new long[ROWS];
+        mAspectRatios = new float[ROWS];
+        // Column arrays like ArticleSnapshot's, with authors shared the way it interns them.
+        final String[] authors = {"Author 0", "Author 1", "Author 2", "Author 3", "Author 4"};
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < ROWS; i++) {
+            mTitles[i] = "Story " + i;
+            mAuthors[i] = authors[i % authors.length];
+            mThumbUrls[i] = "http://example.com/thumbs/" + i + ".jpg";
+            mDates[i] = now - i * 3600 * 1000L;
+            mAspectRatios[i] = i % 3 == 0 ? 1.5f : 0.75f;
+        }
+    }
+
+    @Test
+    public void scrollBindDoesNotAllocate() {
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // As DateLabelCache.prepare does for a new snapshot, before any row is bound.
+                for (int i = 0; i < ROWS; i++) {
+                    mDateLabels.getLabel(mDates[i]);
+                }
+                // Gives every holder a first row, as the initial layout does.
+                bind(0, HOLDERS);
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                bind(HOLDERS, ROWS);
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+            }
+        });
+
+        // The counted binds really changed what the holders show.
+        for (int i = ROWS - HOLDERS; i < ROWS; i++) {
+            assertSame(mTitles[i], mHolders[i % HOLDERS].mTitleView.getText());
+            assertSame(mThumbUrls[i], mHolders[i % HOLDERS].mThumbnailView.getImageUrl());
+        }
+        assertTrue("Allocated " + allocations[0] + " objects over " + BINDS + " binds",
+                allocations[0] <= ALLOCATION_BUDGET);
+    }
+
+    @Test
+    public void unchangedAspectRatioDoesNotRequestLayout() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DynamicHeightNetworkImageView view = mHolders[0].mThumbnailView;
+                view.setAspectRatio(1.25f);
+                view.measure(View.MeasureSpec.makeMeasureSpec(400, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+                view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+
+                view.setAspectRatio(1.25f);
+                assertFalse(view.isLayoutRequested());
+            }
+        });
+    }
+
+    /** Binds rows {@code start} to {@code end} in order, row {@code i} to holder i % HOLDERS. */
+    private void bind(int start, int end) {
+        for (int i = start; i < end; i++) {
+            mHolders[i % HOLDERS].bind(mTitles[i], mDateLabels.getLabel(mDates[i]),
+                    mAuthors[i], mThumbUrls[i], mAspectRatios[i], mPipeline);
+        }
+    }
+}
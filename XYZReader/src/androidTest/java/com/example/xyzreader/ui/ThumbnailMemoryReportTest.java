@@ -0,0 +1,111 @@
+package com.example.xyzreader.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.xyzreader.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the thumbnail memory of a 500-item grid on the device it runs on: every thumbnail is
+ * decoded at the grid's cell width and cached in a thumbnail pool of the device's budget, once at
+ * {@link ImagePipeline#QUALITY_FULL} and once at {@link ImagePipeline#QUALITY_COMPACT}. The
+ * figures are logged as the report; the assertions only check that the compact run halves them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailMemoryReportTest {
+    private static final String TAG = "ThumbnailMemoryReport";
+
+    private static final int ITEMS = 500;
+    private static final float[] ASPECT_RATIOS = {1.5f, 0.67f, 1f, 1.33f};
+
+    @Test
+    public void compactThumbnailsHalveResidentMemory() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final int columns = context.getResources().getInteger(R.integer.list_column_count);
+        final int width = context.getResources().getDisplayMetrics().widthPixels / columns;
+        final byte[][] sources = new byte[ASPECT_RATIOS.length][];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = jpeg(width * 2, Math.round(width * 2 / ASPECT_RATIOS[i]));
+        }
+
+        final Report[] reports = new Report[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                reports[0] = fill(context, sources, width, Bitmap.Config.ARGB_8888);
+                reports[1] = fill(context, sources, width, Bitmap.Config.RGB_565);
+            }
+        });
+        Log.i(TAG, ITEMS + " items at " + width + " px wide, " + columns + " columns");
+        Log.i(TAG, "QUALITY_FULL: " + reports[0]);
+        Log.i(TAG, "QUALITY_COMPACT: " + reports[1]);
+
+        assertEquals(reports[0].decodedBytes, reports[1].decodedBytes * 2);
+        assertEquals(0, reports[0].savedBytes);
+        assertTrue(reports[1].savedBytes > 0);
+        assertTrue(reports[1].residentEntries > reports[0].residentEntries);
+    }
+
+    private static Report fill(Context context, byte[][] sources, int width, Bitmap.Config config) {
+        // Not registered for trim callbacks, so nothing outlives the test or shrinks it midway.
+        BitmapMemoryCache cache = new BitmapMemoryCache(context);
+        BitmapMemoryCache.Pool pool = cache.getThumbnails();
+        Report report = new Report();
+        for (int i = 0; i < ITEMS; i++) {
+            final int source = i % sources.length;
+            final int height = Math.round(width / ASPECT_RATIOS[source]);
+            Bitmap bitmap = ImageDecoder.decode(sources[source], width, height, config,
+                    cache.getReusePool());
+            // Pixel bytes rather than allocation bytes, which depend on the reused bitmap.
+            report.decodedBytes += bitmap.getRowBytes() * bitmap.getHeight();
+            pool.cache("thumb/" + i, bitmap);
+        }
+        for (int i = 0; i < ITEMS; i++) {
+            if (pool.get("thumb/" + i) != null) {
+                report.residentEntries++;
+            }
+        }
+        report.residentBytes = pool.residentBytes();
+        report.savedBytes = pool.compactSavings();
+        report.poolBytes = pool.maxSize();
+        cache.trimToFraction(0);
+        return report;
+    }
+
+    private static byte[] jpeg(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawColor(Color.rgb(120, 140, 160));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static class Report {
+        long decodedBytes;
+        int residentEntries;
+        long residentBytes;
+        long savedBytes;
+        long poolBytes;
+
+        @Override
+        public String toString() {
+            return "decoded " + decodedBytes / 1024 + " KB in total, " + residentEntries
+                    + " thumbnails resident in " + residentBytes / 1024 + "/" + poolBytes / 1024
+                    + " KB, saving " + savedBytes / 1024 + " KB against ARGB_8888";
+        }
+    }
+}
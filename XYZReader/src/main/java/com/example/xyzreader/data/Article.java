@@ -0,0 +1,42 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+
+/**
+ * Immutable, fully materialized article row as returned by {@link ArticleDao}.
+ */
+public final class Article {
+    public final long id;
+    public final String title;
+    public final long publishedDate;
+    public final String author;
+    public final String thumbUrl;
+    public final String photoUrl;
+    public final float aspectRatio;
+    public final String body;
+
+    Article(long id, String title, long publishedDate, String author, String thumbUrl,
+            String photoUrl, float aspectRatio, String body) {
+        this.id = id;
+        this.title = title;
+        this.publishedDate = publishedDate;
+        this.author = author;
+        this.thumbUrl = thumbUrl;
+        this.photoUrl = photoUrl;
+        this.aspectRatio = aspectRatio;
+        this.body = body;
+    }
+
+    /** Reads the row at the cursor's current position, using {@link ArticleDao.Query}. */
+    static Article fromCursor(Cursor cursor) {
+        return new Article(
+                cursor.getLong(ArticleDao.Query._ID),
+                cursor.getString(ArticleDao.Query.TITLE),
+                cursor.getLong(ArticleDao.Query.PUBLISHED_DATE),
+                cursor.getString(ArticleDao.Query.AUTHOR),
+                cursor.getString(ArticleDao.Query.THUMB_URL),
+                cursor.getString(ArticleDao.Query.PHOTO_URL),
+                cursor.getFloat(ArticleDao.Query.ASPECT_RATIO),
+                cursor.getString(ArticleDao.Query.BODY));
+    }
+}
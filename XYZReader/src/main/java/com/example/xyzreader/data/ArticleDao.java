@@ -0,0 +1,229 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.example.xyzreader.data.ItemsProvider.Tables;
+
+/**
+ * Typed, in-process read access to the articles in {@link ItemsDatabase}. The provider is not
+ * exported, so app-internal reads go straight to the shared database instead of paying for the
+ * {@link ItemsProvider} dispatch and handing a {@link Cursor} to the UI.
+ * <p>
+ * Writes still go through the provider, which keeps firing the same change notifications on
+ * {@link ItemsContract.Items} URIs; {@link #registerObserver} listens to exactly those.
+ */
+public class ArticleDao {
+    /** Columns read for an {@link Article}, and their indexes in the cursor. */
+    public interface Query {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+                ItemsContract.Items.TITLE,
+                ItemsContract.Items.PUBLISHED_DATE,
+                ItemsContract.Items.AUTHOR,
+                ItemsContract.Items.THUMB_URL,
+                ItemsContract.Items.PHOTO_URL,
+                ItemsContract.Items.ASPECT_RATIO,
+                ItemsContract.Items.BODY,
+        };
+
+        int _ID = 0;
+        int TITLE = 1;
+        int PUBLISHED_DATE = 2;
+        int AUTHOR = 3;
+        int THUMB_URL = 4;
+        int PHOTO_URL = 5;
+        int ASPECT_RATIO = 6;
+        int BODY = 7;
+    }
+
+    private static ArticleDao sInstance;
+
+    public static synchronized ArticleDao getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArticleDao(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final ItemsDatabase mDatabase;
+
+    private ArticleDao(Context applicationContext) {
+        mContext = applicationContext;
+        mDatabase = ItemsDatabase.getInstance(applicationContext);
+    }
+
+    /**
+     * Returns a columnar snapshot of all articles for the list screen, in
+     * {@link ItemsContract.Items#DEFAULT_SORT} order. Bodies are not loaded.
+     */
+    public ArticleSnapshot getListSnapshot() {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        // BODY is the last column of the projection, so dropping it keeps the other indexes valid.
+        String[] projection = Arrays.copyOf(Query.PROJECTION, Query.BODY);
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.ITEMS)
+                .query(db, projection, ItemsContract.Items.DEFAULT_SORT);
+        try {
+            return ArticleSnapshot.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the articles saved for offline reading, in {@link ItemsContract.Items#DEFAULT_SORT} order. */
+    public List<Article> getOfflineArticles() {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.ITEMS)
+                .where(ItemsContract.Items.AVAILABLE_OFFLINE + "=1")
+                .query(db, Query.PROJECTION.clone(), ItemsContract.Items.DEFAULT_SORT);
+        try {
+            List<Article> articles = new ArrayList<Article>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                articles.add(Article.fromCursor(cursor));
+            }
+            return articles;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the server ids of the articles saved for offline reading. */
+    public HashSet<String> getOfflineServerIds() {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.ITEMS)
+                .where(ItemsContract.Items.AVAILABLE_OFFLINE + "=1")
+                .query(db, new String[]{ItemsContract.Items.SERVER_ID}, null);
+        try {
+            HashSet<String> ids = new HashSet<String>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the {@code _id} of every article, keyed by its server id. */
+    public HashMap<String, Long> getItemIdsByServerId() {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.ITEMS)
+                .query(db, new String[]{ItemsContract.Items.SERVER_ID, ItemsContract.Items._ID}, null);
+        try {
+            HashMap<String, Long> ids = new HashMap<String, Long>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                ids.put(cursor.getString(0), cursor.getLong(1));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the article with the given {@code _id}, or {@code null} if there is none. */
+    public Article getArticle(long itemId) {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.ITEMS)
+                .where(ItemsContract.Items._ID + "=?", Long.toString(itemId))
+                .query(db, Query.PROJECTION.clone(), null);
+        try {
+            return cursor.moveToFirst() ? Article.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the {@code _id} column of all articles in {@link ItemsContract.Items#DEFAULT_SORT} order. */
+    public long[] getArticleIds() {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.ITEMS)
+                .query(db, new String[]{ItemsContract.Items._ID}, ItemsContract.Items.DEFAULT_SORT);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns every persisted image swatch color, keyed by image URL. A value of 0 means the
+     * image was processed and has no vibrant swatch.
+     */
+    public HashMap<String, Integer> getSwatchColors() {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.PALETTES)
+                .query(db, new String[]{
+                        ItemsContract.PalettesColumns.IMAGE_URL,
+                        ItemsContract.PalettesColumns.VIBRANT_RGB}, null);
+        try {
+            HashMap<String, Integer> colors = new HashMap<String, Integer>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                colors.put(cursor.getString(0), cursor.getInt(1));
+            }
+            return colors;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the persisted swatch color of an image, or {@code null} if it has none yet. */
+    public Integer getSwatchColor(String imageUrl) {
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        Cursor cursor = new SelectionBuilder()
+                .table(Tables.PALETTES)
+                .where(ItemsContract.PalettesColumns.IMAGE_URL + "=?", imageUrl)
+                .query(db, new String[]{ItemsContract.PalettesColumns.VIBRANT_RGB}, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Persists the swatch color computed for an image. Palettes are a private cache that nothing
+     * observes, so this writes the database directly rather than through the provider.
+     */
+    public void putSwatchColor(String imageUrl, int rgb) {
+        ContentValues values = new ContentValues(2);
+        values.put(ItemsContract.PalettesColumns.IMAGE_URL, imageUrl);
+        values.put(ItemsContract.PalettesColumns.VIBRANT_RGB, rgb);
+        mDatabase.getWritableDatabase().insertWithOnConflict(
+                Tables.PALETTES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Registers an observer for changes to {@code uri} and its descendants, matching the
+     * notification URI {@link ItemsProvider#query} sets on its cursors.
+     */
+    public void registerObserver(Uri uri, ContentObserver observer) {
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+    }
+
+    public void unregisterObserver(ContentObserver observer) {
+        mContext.getContentResolver().unregisterContentObserver(observer);
+    }
+}
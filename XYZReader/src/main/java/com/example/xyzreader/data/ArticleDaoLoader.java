@@ -0,0 +1,102 @@
+package com.example.xyzreader.data;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Loader that reads through {@link ArticleDao} on a background thread and reloads whenever the
+ * provider notifies a change on its URI, the same way a {@link android.content.CursorLoader}
+ * does for cursors.
+ */
+public abstract class ArticleDaoLoader<T> extends AsyncTaskLoader<T> {
+    public static ArticleDaoLoader<ArticleSnapshot> newListSnapshotInstance(Context context) {
+        return new ArticleDaoLoader<ArticleSnapshot>(context, ItemsContract.Items.buildDirUri()) {
+            @Override
+            protected ArticleSnapshot load(ArticleDao dao) {
+                return dao.getListSnapshot();
+            }
+        };
+    }
+
+    public static ArticleDaoLoader<Article> newInstanceForItemId(Context context, final long itemId) {
+        return new ArticleDaoLoader<Article>(context, ItemsContract.Items.buildItemUri(itemId)) {
+            @Override
+            protected Article load(ArticleDao dao) {
+                return dao.getArticle(itemId);
+            }
+        };
+    }
+
+    public static ArticleDaoLoader<long[]> newArticleIdsInstance(Context context) {
+        return new ArticleDaoLoader<long[]>(context, ItemsContract.Items.buildDirUri()) {
+            @Override
+            protected long[] load(ArticleDao dao) {
+                return dao.getArticleIds();
+            }
+        };
+    }
+
+    private final ArticleDao mDao;
+    private final Uri mUri;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+    private T mData;
+
+    private ArticleDaoLoader(Context context, Uri uri) {
+        super(context);
+        mDao = ArticleDao.getInstance(context);
+        mUri = uri;
+    }
+
+    protected abstract T load(ArticleDao dao);
+
+    @Override
+    public T loadInBackground() {
+        return load(mDao);
+    }
+
+    @Override
+    public void deliverResult(T data) {
+        if (isReset()) {
+            return;
+        }
+
+        mData = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            mDao.registerObserver(mUri, mObserver);
+            mObserving = true;
+        }
+
+        if (mData != null) {
+            deliverResult(mData);
+        }
+        if (takeContentChanged() || mData == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserving) {
+            mDao.unregisterObserver(mObserver);
+            mObserving = false;
+        }
+        mData = null;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Immutable, column-oriented copy of the article list, built off the main thread by
+ * {@link ArticleDao#getListSnapshot()}. Every accessor is a plain array read, so binding a row
+ * touches no {@link Cursor} and allocates nothing. Authors are interned into a shared table
+ * because most articles share a handful of them.
+ */
+public final class ArticleSnapshot {
+    public static final ArticleSnapshot EMPTY = new ArticleSnapshot(
+            new long[0], new String[0], new long[0], new int[0], new String[0],
+            new String[0], new String[0], new float[0]);
+
+    private final long[] mIds;
+    private final String[] mTitles;
+    private final long[] mPublishedDates;
+    private final int[] mAuthorIndexes;
+    private final String[] mAuthors;
+    private final String[] mThumbUrls;
+    private final String[] mPhotoUrls;
+    private final float[] mAspectRatios;
+
+    private ArticleSnapshot(long[] ids, String[] titles, long[] publishedDates,
+            int[] authorIndexes, String[] authors, String[] thumbUrls, String[] photoUrls,
+            float[] aspectRatios) {
+        mIds = ids;
+        mTitles = titles;
+        mPublishedDates = publishedDates;
+        mAuthorIndexes = authorIndexes;
+        mAuthors = authors;
+        mThumbUrls = thumbUrls;
+        mPhotoUrls = photoUrls;
+        mAspectRatios = aspectRatios;
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public String getTitle(int position) {
+        return mTitles[position];
+    }
+
+    public long getPublishedDate(int position) {
+        return mPublishedDates[position];
+    }
+
+    public String getAuthor(int position) {
+        return mAuthors[mAuthorIndexes[position]];
+    }
+
+    public String getThumbUrl(int position) {
+        return mThumbUrls[position];
+    }
+
+    public String getPhotoUrl(int position) {
+        return mPhotoUrls[position];
+    }
+
+    public float getAspectRatio(int position) {
+        return mAspectRatios[position];
+    }
+
+    /**
+     * Reads every row of {@code cursor}, which must use {@link ArticleDao.Query} column
+     * indexes. The body column is not read; the list never shows it.
+     */
+    static ArticleSnapshot fromCursor(Cursor cursor) {
+        final int count = cursor.getCount();
+        long[] ids = new long[count];
+        String[] titles = new String[count];
+        long[] publishedDates = new long[count];
+        int[] authorIndexes = new int[count];
+        String[] thumbUrls = new String[count];
+        String[] photoUrls = new String[count];
+        float[] aspectRatios = new float[count];
+
+        ArrayList<String> authors = new ArrayList<String>();
+        HashMap<String, Integer> authorTable = new HashMap<String, Integer>();
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(ArticleDao.Query._ID);
+            titles[i] = cursor.getString(ArticleDao.Query.TITLE);
+            publishedDates[i] = cursor.getLong(ArticleDao.Query.PUBLISHED_DATE);
+            thumbUrls[i] = cursor.getString(ArticleDao.Query.THUMB_URL);
+            photoUrls[i] = cursor.getString(ArticleDao.Query.PHOTO_URL);
+            aspectRatios[i] = cursor.getFloat(ArticleDao.Query.ASPECT_RATIO);
+
+            String author = cursor.getString(ArticleDao.Query.AUTHOR);
+            Integer index = authorTable.get(author);
+            if (index == null) {
+                index = authors.size();
+                authors.add(author);
+                authorTable.put(author, index);
+            }
+            authorIndexes[i] = index;
+        }
+
+        return new ArticleSnapshot(ids, titles, publishedDates, authorIndexes,
+                authors.toArray(new String[authors.size()]), thumbUrls, photoUrls, aspectRatios);
+    }
+}
@@ -25,6 +25,15 @@ public class ItemsContract {
 		String ASPECT_RATIO = "aspect_ratio";
 		/** Type: INTEGER NOT NULL DEFAULT 0 */
 		String PUBLISHED_DATE = "published_date";
+		/** Type: INTEGER NOT NULL DEFAULT 0, 1 once saved for offline reading */
+		String AVAILABLE_OFFLINE = "available_offline";
+	}
+
+	interface PalettesColumns {
+		/** Type: TEXT PRIMARY KEY */
+		String IMAGE_URL = "image_url";
+		/** Type: INTEGER NOT NULL, 0 when the image has no vibrant swatch */
+		String VIBRANT_RGB = "vibrant_rgb";
 	}
 
 	public static class Items implements ItemsColumns {
@@ -8,9 +8,23 @@ import static com.example.xyzreader.data.ItemsProvider.Tables;
 
 public class ItemsDatabase extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "xyzreader.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
 
-    public ItemsDatabase(Context context) {
+    private static ItemsDatabase sInstance;
+
+    /**
+     * Returns the process-wide helper shared by {@link ItemsProvider} and {@link ArticleDao}, so
+     * both sides read and write through the same {@link SQLiteDatabase} connection.
+     */
+    public static synchronized ItemsDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ItemsDatabase(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private ItemsDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
@@ -25,13 +39,20 @@ public class ItemsDatabase extends SQLiteOpenHelper {
                 + ItemsContract.ItemsColumns.THUMB_URL + " TEXT NOT NULL,"
                 + ItemsContract.ItemsColumns.PHOTO_URL + " TEXT NOT NULL,"
                 + ItemsContract.ItemsColumns.ASPECT_RATIO + " REAL NOT NULL DEFAULT 1.5,"
-                + ItemsContract.ItemsColumns.PUBLISHED_DATE + " INTEGER NOT NULL DEFAULT 0"
+                + ItemsContract.ItemsColumns.PUBLISHED_DATE + " INTEGER NOT NULL DEFAULT 0,"
+                + ItemsContract.ItemsColumns.AVAILABLE_OFFLINE + " INTEGER NOT NULL DEFAULT 0"
+                + ")" );
+
+        db.execSQL("CREATE TABLE " + Tables.PALETTES + " ("
+                + ItemsContract.PalettesColumns.IMAGE_URL + " TEXT PRIMARY KEY,"
+                + ItemsContract.PalettesColumns.VIBRANT_RGB + " INTEGER NOT NULL"
                 + ")" );
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.ITEMS);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.PALETTES);
         onCreate(db);
     }
 }
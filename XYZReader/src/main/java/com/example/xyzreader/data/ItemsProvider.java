@@ -20,6 +20,7 @@ public class ItemsProvider extends ContentProvider {
 
 	interface Tables {
 		String ITEMS = "items";
+		String PALETTES = "palettes";
 	}
 
 	private static final int ITEMS = 0;
@@ -37,7 +38,7 @@ public class ItemsProvider extends ContentProvider {
 
 	@Override
 	public boolean onCreate() {
-        mOpenHelper = new ItemsDatabase(getContext());
+        mOpenHelper = ItemsDatabase.getInstance(getContext());
 		return true;
 	}
 
@@ -0,0 +1,129 @@
+package com.example.xyzreader.data;
+
+import android.app.IntentService;
+import android.content.ContentProviderOperation;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.xyzreader.R;
+import com.example.xyzreader.ui.ImagePipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Saves articles for offline reading. Each article's photo is pinned in the image disk cache at
+ * the size the detail header loads it at, out of reach of normal eviction, and the row is flagged
+ * {@link ItemsContract.Items#AVAILABLE_OFFLINE} through {@link ItemsProvider}. Bodies are already
+ * stored by {@link UpdaterService}, so an article in the pack opens without network access.
+ */
+public class OfflinePackService extends IntentService {
+    private static final String TAG = "OfflinePackService";
+
+    /** Adds the articles in {@link #EXTRA_ITEM_IDS}, or else the newest few, to the pack. */
+    public static final String ACTION_SAVE
+            = "com.example.xyzreader.intent.action.SAVE_OFFLINE";
+    /** Re-pins the current pack after a sync, without adding to it or reporting. */
+    public static final String ACTION_REFRESH
+            = "com.example.xyzreader.intent.action.REFRESH_OFFLINE";
+    public static final String EXTRA_ITEM_IDS
+            = "com.example.xyzreader.intent.extra.ITEM_IDS";
+
+    public OfflinePackService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        final long start = SystemClock.elapsedRealtime();
+        final boolean save = !ACTION_REFRESH.equals(intent.getAction());
+        ArticleDao dao = ArticleDao.getInstance(this);
+        ImagePipeline pipeline = ImagePipeline.getInstance(this);
+        // Used only until an article has been opened: a full-width header of the app bar's height.
+        final int estimatedWidth = getResources().getDisplayMetrics().widthPixels;
+        final int estimatedHeight = getResources().getDimensionPixelSize(R.dimen.layout_app_bar_height);
+
+        List<Article> pack = new ArrayList<Article>(dao.getOfflineArticles());
+        HashSet<Long> offlineIds = new HashSet<Long>();
+        for (Article article : pack) {
+            offlineIds.add(article.id);
+        }
+        if (save) {
+            long[] ids = intent.getLongArrayExtra(EXTRA_ITEM_IDS);
+            if (ids == null) {
+                long[] newest = dao.getArticleIds();
+                ids = Arrays.copyOf(newest, Math.min(newest.length,
+                        getResources().getInteger(R.integer.offline_pack_article_count)));
+            }
+            for (long id : ids) {
+                Article article = offlineIds.contains(id) ? null : dao.getArticle(id);
+                if (article != null) {
+                    pack.add(article);
+                }
+            }
+        }
+
+        // Every photo of the pack is pinned again, so the set of keys kept pinned is exactly the
+        // pack's: photos of articles that left it, or that changed, are released to the LRU.
+        HashSet<String> pinnedKeys = new HashSet<String>();
+        ArrayList<ContentProviderOperation> cpo = new ArrayList<ContentProviderOperation>();
+        int saved = 0;
+        long bodyBytes = 0;
+        for (Article article : pack) {
+            boolean complete = true;
+            if (article.photoUrl != null) {
+                String key = pipeline.pinPhoto(article.photoUrl, article.aspectRatio,
+                        estimatedWidth, estimatedHeight);
+                if (key != null) {
+                    pinnedKeys.add(key);
+                } else {
+                    complete = false;
+                }
+            }
+
+            if (complete) {
+                saved++;
+                bodyBytes += article.body.length();
+            }
+            if (complete != offlineIds.contains(article.id)) {
+                cpo.add(ContentProviderOperation.newUpdate(ItemsContract.Items.buildItemUri(article.id))
+                        .withValue(ItemsContract.Items.AVAILABLE_OFFLINE, complete ? 1 : 0)
+                        .build());
+            }
+        }
+        pipeline.getDiskCache().retainPinned(pinnedKeys);
+
+        try {
+            getContentResolver().applyBatch(ItemsContract.CONTENT_AUTHORITY, cpo);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "Error flagging offline articles.", e);
+        }
+
+        final long packBytes = pipeline.getDiskCache().pinnedSize() + bodyBytes;
+        final long millis = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Offline pack: " + saved + "/" + pack.size() + " articles, " + packBytes
+                + " bytes, " + millis + " ms.");
+        if (save) {
+            report(getString(R.string.offline_pack_saved, saved, pack.size(),
+                    Formatter.formatShortFileSize(this, packBytes), millis / 1000f));
+        }
+    }
+
+    private void report(final String message) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
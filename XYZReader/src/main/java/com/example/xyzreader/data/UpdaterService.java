@@ -19,6 +19,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 public class UpdaterService extends IntentService {
     private static final String TAG = "UpdaterService";
@@ -28,6 +30,13 @@ public class UpdaterService extends IntentService {
     public static final String EXTRA_REFRESHING
             = "com.example.xyzreader.intent.extra.REFRESHING";
 
+    /**
+     * Action of the service intent started, within this package, after every successful sync.
+     * The UI layer handles it to prepare for the new articles, e.g. by warming the image cache.
+     */
+    public static final String ACTION_SYNCED
+            = "com.example.xyzreader.intent.action.SYNCED";
+
     public UpdaterService() {
         super(TAG);
     }
@@ -51,9 +60,13 @@ public class UpdaterService extends IntentService {
 
         Uri dirUri = ItemsContract.Items.buildDirUri();
 
-        // Delete all items
-        cpo.add(ContentProviderOperation.newDelete(dirUri).build());
+        // Articles already stored are updated in place, matched by server id, so they keep
+        // their _id, and with it their place in the list and their offline flag.
+        ArticleDao dao = ArticleDao.getInstance(this);
+        HashMap<String, Long> staleIds = dao.getItemIdsByServerId();
+        HashSet<String> offlineIds = dao.getOfflineServerIds();
 
+        boolean updated = false;
         try {
             JSONArray array = RemoteEndpointUtil.fetchJsonArray();
             if (array == null) {
@@ -63,7 +76,8 @@ public class UpdaterService extends IntentService {
             for (int i = 0; i < array.length(); i++) {
                 ContentValues values = new ContentValues();
                 JSONObject object = array.getJSONObject(i);
-                values.put(ItemsContract.Items.SERVER_ID, object.getString("id" ));
+                String serverId = object.getString("id" );
+                values.put(ItemsContract.Items.SERVER_ID, serverId);
                 values.put(ItemsContract.Items.AUTHOR, object.getString("author" ));
                 values.put(ItemsContract.Items.TITLE, object.getString("title" ));
                 values.put(ItemsContract.Items.BODY, object.getString("body" ));
@@ -72,10 +86,23 @@ public class UpdaterService extends IntentService {
                 values.put(ItemsContract.Items.ASPECT_RATIO, object.getString("aspect_ratio" ));
                 time.parse3339(object.getString("published_date"));
                 values.put(ItemsContract.Items.PUBLISHED_DATE, time.toMillis(false));
-                cpo.add(ContentProviderOperation.newInsert(dirUri).withValues(values).build());
+                Long itemId = staleIds.remove(serverId);
+                if (itemId != null) {
+                    cpo.add(ContentProviderOperation.newUpdate(
+                            ItemsContract.Items.buildItemUri(itemId)).withValues(values).build());
+                } else {
+                    cpo.add(ContentProviderOperation.newInsert(dirUri).withValues(values).build());
+                }
+            }
+
+            // Whatever was not in the feed has been taken down.
+            for (Long itemId : staleIds.values()) {
+                cpo.add(ContentProviderOperation.newDelete(
+                        ItemsContract.Items.buildItemUri(itemId)).build());
             }
 
             getContentResolver().applyBatch(ItemsContract.CONTENT_AUTHORITY, cpo);
+            updated = true;
 
         } catch (JSONException | RemoteException | OperationApplicationException e) {
             Log.e(TAG, "Error updating content.", e);
@@ -83,5 +110,15 @@ public class UpdaterService extends IntentService {
 
         sendStickyBroadcast(
                 new Intent(BROADCAST_ACTION_STATE_CHANGE).putExtra(EXTRA_REFRESHING, false));
+
+        // After the broadcast, so the list shows the new articles without waiting for this.
+        if (updated) {
+            if (!offlineIds.isEmpty()) {
+                // Saves changed photos and releases those of articles no longer in the feed.
+                startService(new Intent(this, OfflinePackService.class)
+                        .setAction(OfflinePackService.ACTION_REFRESH));
+            }
+            startService(new Intent(ACTION_SYNCED).setPackage(getPackageName()));
+        }
     }
 }
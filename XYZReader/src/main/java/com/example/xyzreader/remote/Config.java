@@ -6,6 +6,15 @@ import java.net.URL;
 public class Config {
     public static final URL BASE_URL;
 
+    /**
+     * Template for asking the image host for a copy resized to a given width, or {@code null} if
+     * it only serves the URLs in the feed. {@code {url}} is replaced with the feed URL,
+     * {@code {url_encoded}} with the same URL-encoded, and {@code {width}} with the width in
+     * pixels; e.g. {@code "{url}?w={width}"} or
+     * {@code "https://images.example.com/resize?w={width}&src={url_encoded}"}.
+     */
+    public static final String IMAGE_URL_TEMPLATE = null;
+
     static {
         URL url = null;
         try {
@@ -16,9 +16,20 @@ import okhttp3.Response;
 public class RemoteEndpointUtil {
     private static final String TAG = "RemoteEndpointUtil";
 
+    private static final OkHttpClient sClient = new OkHttpClient();
+
     private RemoteEndpointUtil() {
     }
 
+    /**
+     * The app's single {@link OkHttpClient}. Callers that need other settings derive a client
+     * from it with {@link OkHttpClient#newBuilder}, which keeps its connection pool and
+     * dispatcher shared.
+     */
+    public static OkHttpClient getHttpClient() {
+        return sClient;
+    }
+
     public static JSONArray fetchJsonArray() {
         String itemsJson = null;
         try {
@@ -44,13 +55,11 @@ public class RemoteEndpointUtil {
     }
 
     static String fetchPlainText(URL url) throws IOException {
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(url)
                 .build();
 
-        Response response = client.newCall(request).execute();
+        Response response = sClient.newCall(request).execute();
         return response.body().string();
     }
 }
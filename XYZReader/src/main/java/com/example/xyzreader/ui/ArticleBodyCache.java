@@ -0,0 +1,265 @@
+package com.example.xyzreader.ui;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.text.Html;
+import android.text.Spanned;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Styled article bodies, split into paragraphs and parsed from HTML on a background executor,
+ * then kept in memory by article id and body hash. A page swiped back to, or one the pager
+ * created off screen before it was shown, gets its text without parsing on the main thread; an
+ * updated body gets a new key.
+ * <p>
+ * Paragraphs are parsed in order, and those making up the start of the body are handed to
+ * listeners before the rest, so the first screenful shows while a long article is still parsing.
+ * Each paragraph is parsed on its own, so inline markup left open across a paragraph break does
+ * not carry over into the next one.
+ * <p>
+ * All methods must be called on the main thread; listeners are invoked on it.
+ */
+public class ArticleBodyCache implements MemoryPressureCoordinator.Trimmable {
+    /** Budget in bytes, at two per character plus {@link #SPAN_BYTES_ESTIMATE} per span. */
+    private static final int MAX_BYTES = 2 * 1024 * 1024;
+    private static final int SPAN_BYTES_ESTIMATE = 64;
+    /** Characters of HTML parsed, at whole paragraphs, before the start of a body is delivered. */
+    static final int FIRST_CHUNK_CHARS = 3000;
+    /** Longer paragraphs are split further at their next line break, to bound each one's layout. */
+    static final int MAX_PARAGRAPH_CHARS = 2000;
+
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile(
+            "(?i)\\s*(?:(?:<br\\s*/?>\\s*){2,}|</?p(?:\\s[^>]*)?>|\\n[ \\t\\r]*\\n)\\s*");
+    private static final Pattern LINE_BREAK = Pattern.compile("(?i)<br\\s*/?>|\\n");
+
+    public interface Listener {
+        /**
+         * Called with the first paragraphs of the body, unless it was parsed quickly or is
+         * cached, and then with all of them. Both lists are immutable, and the complete one
+         * starts with the same paragraphs as the partial one.
+         *
+         * @param html the body the paragraphs were parsed from, as passed to {@link #parse}
+         */
+        void onBodyParsed(long itemId, String html, List<CharSequence> paragraphs,
+                boolean complete);
+    }
+
+    private static class Pending {
+        final ArrayList<Listener> listeners = new ArrayList<Listener>(2);
+        /** The paragraphs delivered so far, or {@code null}. */
+        List<CharSequence> partial;
+    }
+
+    private static ArticleBodyCache sInstance;
+
+    public static ArticleBodyCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArticleBodyCache(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private final LruCache<String, List<CharSequence>> mBodies =
+            new LruCache<String, List<CharSequence>>(MAX_BYTES) {
+                @Override
+                protected int sizeOf(String key, List<CharSequence> value) {
+                    return sizeOfBody(value);
+                }
+            };
+    private final HashMap<String, Pending> mPending = new HashMap<String, Pending>();
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private ArticleBodyCache(Context applicationContext) {
+        MemoryPressureCoordinator.getInstance(applicationContext).register(this);
+    }
+
+    /**
+     * Returns the parsed paragraphs of {@code html} for article {@code itemId}, or {@code null}
+     * if they are not cached.
+     */
+    public List<CharSequence> get(long itemId, String html) {
+        return mBodies.get(keyFor(itemId, html));
+    }
+
+    /**
+     * Parses {@code html} in the background unless it is cached or already being parsed, then
+     * calls {@code listener}, which may be {@code null} to only warm the cache.
+     */
+    public void parse(final long itemId, final String html, Listener listener) {
+        final String key = keyFor(itemId, html);
+        List<CharSequence> cached = mBodies.get(key);
+        if (cached != null) {
+            if (listener != null) {
+                listener.onBodyParsed(itemId, html, cached, true);
+            }
+            return;
+        }
+
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            if (listener != null && !pending.listeners.contains(listener)) {
+                pending.listeners.add(listener);
+                if (pending.partial != null) {
+                    listener.onBodyParsed(itemId, html, pending.partial, false);
+                }
+            }
+            return;
+        }
+
+        pending = new Pending();
+        if (listener != null) {
+            pending.listeners.add(listener);
+        }
+        mPending.put(key, pending);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> sources = splitParagraphs(html);
+                final ArrayList<CharSequence> paragraphs = new ArrayList<CharSequence>(sources.size());
+                final int firstChunkEnd = firstChunkEnd(sources);
+                int i = 0;
+                while (i < firstChunkEnd) {
+                    addParsed(paragraphs, sources.get(i++));
+                }
+                if (i < sources.size()) {
+                    final List<CharSequence> partial =
+                            Collections.unmodifiableList(new ArrayList<CharSequence>(paragraphs));
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            deliverPartial(key, itemId, html, partial);
+                        }
+                    });
+                }
+                while (i < sources.size()) {
+                    addParsed(paragraphs, sources.get(i++));
+                }
+
+                final List<CharSequence> body = Collections.unmodifiableList(paragraphs);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBodies.put(key, body);
+                        deliver(key, itemId, html, body);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Drops the least recently used bodies; they are parsed again when next shown. */
+    @Override
+    public long trimToFraction(float keepFraction) {
+        final int before = mBodies.size();
+        mBodies.trimToSize((int) (before * keepFraction));
+        return before - mBodies.size();
+    }
+
+    private void deliverPartial(String key, long itemId, String html,
+            List<CharSequence> partial) {
+        Pending pending = mPending.get(key);
+        if (pending == null) {
+            return;
+        }
+        pending.partial = partial;
+        for (int i = 0; i < pending.listeners.size(); i++) {
+            pending.listeners.get(i).onBodyParsed(itemId, html, partial, false);
+        }
+    }
+
+    private void deliver(String key, long itemId, String html, List<CharSequence> body) {
+        Pending pending = mPending.remove(key);
+        if (pending == null) {
+            return;
+        }
+        for (int i = 0; i < pending.listeners.size(); i++) {
+            pending.listeners.get(i).onBodyParsed(itemId, html, body, true);
+        }
+    }
+
+    /**
+     * Splits {@code html} at paragraph tags, blank lines and runs of line break tags, and
+     * paragraphs longer than {@link #MAX_PARAGRAPH_CHARS} at their next line break after it.
+     */
+    static List<String> splitParagraphs(String html) {
+        ArrayList<String> paragraphs = new ArrayList<String>();
+        for (String paragraph : PARAGRAPH_BREAK.split(html)) {
+            int start = 0;
+            if (paragraph.length() > MAX_PARAGRAPH_CHARS) {
+                Matcher matcher = LINE_BREAK.matcher(paragraph);
+                while (matcher.find()) {
+                    if (matcher.start() - start >= MAX_PARAGRAPH_CHARS) {
+                        addNonBlank(paragraphs, paragraph.substring(start, matcher.start()));
+                        start = matcher.end();
+                    }
+                }
+            }
+            addNonBlank(paragraphs, paragraph.substring(start));
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Returns how many of {@code sources} make up the start of the body delivered first: whole
+     * paragraphs until {@link #FIRST_CHUNK_CHARS} characters of HTML are reached, and at least one.
+     */
+    static int firstChunkEnd(List<String> sources) {
+        int end = 0;
+        int chars = 0;
+        while (end < sources.size() && (end == 0 || chars < FIRST_CHUNK_CHARS)) {
+            chars += sources.get(end++).length();
+        }
+        return end;
+    }
+
+    private static void addNonBlank(List<String> paragraphs, String paragraph) {
+        if (paragraph.trim().length() > 0) {
+            paragraphs.add(paragraph);
+        }
+    }
+
+    /** Parses one paragraph and adds it without surrounding whitespace, unless it is empty. */
+    private static void addParsed(List<CharSequence> paragraphs, String html) {
+        final CharSequence text = Html.fromHtml(html);
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start < end) {
+            paragraphs.add(text.subSequence(start, end));
+        }
+    }
+
+    private static String keyFor(long itemId, String html) {
+        return itemId + "/" + Integer.toHexString(html.hashCode());
+    }
+
+    private static int sizeOfBody(List<CharSequence> paragraphs) {
+        int size = 0;
+        for (int i = 0; i < paragraphs.size(); i++) {
+            final CharSequence paragraph = paragraphs.get(i);
+            int spans = 0;
+            if (paragraph instanceof Spanned) {
+                spans = ((Spanned) paragraph).getSpans(0, paragraph.length(), Object.class).length;
+            }
+            size += paragraph.length() * 2 + spans * SPAN_BYTES_ESTIMATE;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.xyzreader.ui;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.IdentityHashMap;
+
+/**
+ * In-memory bitmap cache measured in bytes rather than entries. The budget is a fraction of the
+ * device's per-app memory class and is split between a pool for grid thumbnails and a pool for
+ * full-size detail photos, so a few large photos cannot flush every thumbnail. Both pools use
+ * {@link WTinyLfuCache}, so a fast fling past images seen once does not evict the ones users
+ * keep returning to.
+ * <p>
+ * Bitmaps are reference counted: the cache holds one reference per entry and every view showing
+ * a bitmap holds another through {@link #retain} and {@link #release}. A bitmap whose count
+ * drops to zero is handed to the {@link BitmapPool} for the decoder to reuse. Main thread only.
+ */
+public class BitmapMemoryCache implements MemoryPressureCoordinator.Trimmable {
+    /** Share of the memory class given to bitmaps. */
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+    /** Share of the bitmap budget given to thumbnails; photos get the rest. */
+    private static final float THUMBNAIL_SHARE = 1 / 3f;
+    /** Size of the reuse pool relative to the cache budget. */
+    private static final float REUSE_POOL_SHARE = 1 / 4f;
+    /** Rough entry counts the pools' frequency sketches are sized for. */
+    static final int THUMBNAIL_EXPECTED_ENTRIES = 256;
+    static final int PHOTO_EXPECTED_ENTRIES = 32;
+
+    public static class Pool extends WTinyLfuCache<String, Bitmap> {
+        private final BitmapMemoryCache mOwner;
+        /** Bytes the resident entries would take on top of their size if all were ARGB_8888. */
+        private long mCompactSavings;
+
+        Pool(BitmapMemoryCache owner, int maxBytes, int expectedEntries) {
+            super(maxBytes, expectedEntries);
+            mOwner = owner;
+        }
+
+        /** Caches {@code bitmap}, taking a reference to it for as long as it stays cached. */
+        void cache(String key, Bitmap bitmap) {
+            mOwner.retain(bitmap);
+            synchronized (this) {
+                // Counted before the put, which may evict the new entry straight away.
+                mCompactSavings += compactSavingsOf(bitmap);
+                put(key, bitmap);
+            }
+        }
+
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return byteCountOf(value);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+            mCompactSavings -= compactSavingsOf(oldValue);
+            mOwner.release(oldValue);
+        }
+
+        /** Fraction of lookups served from memory since the pool was created. */
+        public float hitRatio() {
+            final int hits = hitCount();
+            final int lookups = hits + missCount();
+            return lookups == 0 ? 0f : (float) hits / lookups;
+        }
+
+        /** Bytes currently held by the pool. */
+        public int residentBytes() {
+            return size();
+        }
+
+        /**
+         * Bytes the pool would hold on top of {@link #residentBytes} had its entries been decoded
+         * at {@link Bitmap.Config#ARGB_8888} rather than a 16-bit config.
+         */
+        public synchronized long compactSavings() {
+            return mCompactSavings;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(
+                    "Pool[resident=%d/%d bytes, saved=%d bytes, hitRatio=%.2f, evictions=%d, rejections=%d]",
+                    size(), maxSize(), mCompactSavings, hitRatio(), evictionCount(), rejectionCount());
+        }
+    }
+
+    private final Pool mThumbnails;
+    private final Pool mPhotos;
+    private final BitmapPool mReusePool;
+    private final IdentityHashMap<Bitmap, int[]> mReferences = new IdentityHashMap<Bitmap, int[]>();
+    /** Running totals of bytes whose last reference was dropped, and of those the pool took. */
+    private long mUnreferencedBytes;
+    private long mPooledBytes;
+
+    /**
+     * Sizes the cache from the device's memory class. It is not registered with
+     * {@link MemoryPressureCoordinator}; its owner does that if it should be trimmed.
+     */
+    public BitmapMemoryCache(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int budget = am.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+        final int thumbnailBudget = (int) (budget * THUMBNAIL_SHARE);
+        mThumbnails = new Pool(this, thumbnailBudget, THUMBNAIL_EXPECTED_ENTRIES);
+        mPhotos = new Pool(this, budget - thumbnailBudget, PHOTO_EXPECTED_ENTRIES);
+        mReusePool = new BitmapPool((int) (budget * REUSE_POOL_SHARE));
+    }
+
+    /**
+     * Evicts the least recently used entries of both pools, then trims the reuse pool those
+     * evictions fed. Bitmaps still on screen stay alive until their views let go of them, so
+     * only evicted bitmaps nothing else references count as released, along with what the reuse
+     * pool drops.
+     */
+    @Override
+    public long trimToFraction(float keepFraction) {
+        final long unreferencedBefore = mUnreferencedBytes;
+        final long pooledBefore = mPooledBytes;
+        final int reuseBefore = mReusePool.size();
+        mThumbnails.trimToSize((int) (mThumbnails.size() * keepFraction));
+        mPhotos.trimToSize((int) (mPhotos.size() * keepFraction));
+        final long pooled = mPooledBytes - pooledBefore;
+        mReusePool.trimToSize((int) (reuseBefore * keepFraction));
+
+        // The reuse pool drops its eldest bitmaps first: those it held before the evictions,
+        // which are not counted yet, then evicted ones, which are.
+        final long dropped = reuseBefore + pooled - mReusePool.size();
+        return mUnreferencedBytes - unreferencedBefore
+                + Math.max(0, Math.min(reuseBefore, dropped));
+    }
+
+    /** Marks {@code bitmap} as in use so it is never handed out for reuse. Null is ignored. */
+    public void retain(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        int[] count = mReferences.get(bitmap);
+        if (count == null) {
+            // Released earlier and pooled, yet still held somewhere; it must not be decoded into.
+            mReusePool.remove(bitmap);
+            mReferences.put(bitmap, new int[] { 1 });
+        } else {
+            count[0]++;
+        }
+    }
+
+    /** Drops a reference taken with {@link #retain}. Null is ignored. */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        int[] count = mReferences.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (--count[0] == 0) {
+            mReferences.remove(bitmap);
+            final int bytes = byteCountOf(bitmap);
+            mUnreferencedBytes += bytes;
+            if (mReusePool.put(bitmap)) {
+                mPooledBytes += bytes;
+            }
+        }
+    }
+
+    BitmapPool getReusePool() {
+        return mReusePool;
+    }
+
+    public Pool getThumbnails() {
+        return mThumbnails;
+    }
+
+    public Pool getPhotos() {
+        return mPhotos;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapMemoryCache[thumbnails=" + mThumbnails + ", photos=" + mPhotos
+                + ", referenced=" + mReferences.size() + ", reuse=" + mReusePool + "]";
+    }
+
+    /** Bytes saved by {@code bitmap} against an ARGB_8888 bitmap of the same dimensions. */
+    static int compactSavingsOf(Bitmap bitmap) {
+        final int full = bitmap.getWidth() * bitmap.getHeight() * 4;
+        return Math.max(0, full - byteCountOf(bitmap));
+    }
+
+    static int byteCountOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mutable bitmaps no longer shown or cached, kept for {@link ImageDecoder} to decode into
+ * instead of allocating. Bitmaps are bucketed by allocation size; a request takes the smallest
+ * one that fits and is reconfigured to the requested dimensions, which needs KitKat. On older
+ * releases the pool stays empty.
+ * <p>
+ * Bounded in bytes, dropping the least recently pooled bitmap first. Thread-safe.
+ */
+class BitmapPool {
+    /** A pooled bitmap may be at most this many times larger than the request it serves. */
+    private static final int MAX_OVERSIZE = 2;
+
+    private final TreeMap<Integer, ArrayList<Bitmap>> mBuckets = new TreeMap<Integer, ArrayList<Bitmap>>();
+    private final ArrayDeque<Bitmap> mOrder = new ArrayDeque<Bitmap>();
+    /** The bitmaps in the pool, by identity; values are unused. */
+    private final IdentityHashMap<Bitmap, Boolean> mPooled = new IdentityHashMap<Bitmap, Boolean>();
+    private final int mMaxBytes;
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mDropCount;
+    private int mDuplicateCount;
+
+    BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Offers {@code bitmap} for reuse. Returns {@code false} if it was not taken, in which case
+     * the caller still owns it. A bitmap already in the pool is not added again, which would let
+     * two decodes write into it at once, but still counts as taken.
+     */
+    synchronized boolean put(Bitmap bitmap) {
+        if (!isSupported() || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        if (mPooled.containsKey(bitmap)) {
+            mDuplicateCount++;
+            return true;
+        }
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bytes > mMaxBytes) {
+            return false;
+        }
+
+        ArrayList<Bitmap> bucket = mBuckets.get(bytes);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>(4);
+            mBuckets.put(bytes, bucket);
+        }
+        bucket.add(bitmap);
+        mOrder.addLast(bitmap);
+        mPooled.put(bitmap, Boolean.TRUE);
+        mSize += bytes;
+        trimToSize(mMaxBytes);
+        return true;
+    }
+
+    /** Drops the least recently pooled bitmaps until at most {@code maxBytes} remain. */
+    synchronized void trimToSize(int maxBytes) {
+        while (mSize > maxBytes) {
+            Bitmap eldest = mOrder.removeFirst();
+            removeFromBucket(eldest);
+            mDropCount++;
+        }
+    }
+
+    /**
+     * Returns a pooled bitmap reconfigured to {@code width} x {@code height} in {@code config},
+     * or {@code null} if none fits. Its pixels are undefined.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported()) {
+            return null;
+        }
+
+        final int bytes = width * height * bytesPerPixel(config);
+        Map.Entry<Integer, ArrayList<Bitmap>> entry = mBuckets.ceilingEntry(bytes);
+        if (entry == null || entry.getKey() > bytes * MAX_OVERSIZE) {
+            mMissCount++;
+            return null;
+        }
+
+        ArrayList<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mOrder.removeFirstOccurrence(bitmap);
+        mPooled.remove(bitmap);
+        mSize -= entry.getKey();
+        mHitCount++;
+
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    /** Takes {@code bitmap} back out of the pool, e.g. because it is shown again. */
+    synchronized boolean remove(Bitmap bitmap) {
+        if (!mPooled.containsKey(bitmap)) {
+            return false;
+        }
+        mOrder.removeFirstOccurrence(bitmap);
+        removeFromBucket(bitmap);
+        return true;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + mSize + "/" + mMaxBytes + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", dropped=" + mDropCount
+                + ", duplicates=" + mDuplicateCount + "]";
+    }
+
+    private void removeFromBucket(Bitmap bitmap) {
+        final int bytes = bitmap.getAllocationByteCount();
+        ArrayList<Bitmap> bucket = mBuckets.get(bytes);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(bytes);
+        }
+        mPooled.remove(bitmap);
+        mSize -= bytes;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return config == Bitmap.Config.ALPHA_8 ? 1 : 4;
+    }
+}
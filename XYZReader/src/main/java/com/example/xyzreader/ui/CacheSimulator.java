@@ -0,0 +1,87 @@
+package com.example.xyzreader.ui;
+
+import android.support.v4.util.LruCache;
+
+import java.util.Locale;
+
+/**
+ * Replays a recorded {@link ImageAccessTrace} against plain LRU and {@link WTinyLfuCache} with
+ * the same byte budgets and reports the hit ratio each would have achieved. Every lookup that
+ * misses is followed by an insert of the key's recorded size, as the pipeline does once the
+ * image has loaded. Pure computation; safe to run on any thread.
+ */
+final class CacheSimulator {
+    private CacheSimulator() {
+    }
+
+    static final class Result {
+        final int mAccesses;
+        final int mLruHits;
+        final int mTinyLfuHits;
+
+        Result(int accesses, int lruHits, int tinyLfuHits) {
+            mAccesses = accesses;
+            mLruHits = lruHits;
+            mTinyLfuHits = tinyLfuHits;
+        }
+
+        float lruHitRatio() {
+            return mAccesses == 0 ? 0f : (float) mLruHits / mAccesses;
+        }
+
+        float tinyLfuHitRatio() {
+            return mAccesses == 0 ? 0f : (float) mTinyLfuHits / mAccesses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "accesses=%d, lru=%.3f, wtinylfu=%.3f (%+.3f)",
+                    mAccesses, lruHitRatio(), tinyLfuHitRatio(), tinyLfuHitRatio() - lruHitRatio());
+        }
+    }
+
+    /** Replays the accesses of one {@code kind} against caches of {@code maxBytes}. */
+    static Result replay(ImageAccessTrace.Snapshot trace, int kind, int maxBytes, int expectedEntries) {
+        LruCache<String, Integer> lru = new LruCache<String, Integer>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Integer value) {
+                return value;
+            }
+        };
+        WTinyLfuCache<String, Integer> tinyLfu =
+                new WTinyLfuCache<String, Integer>(maxBytes, expectedEntries) {
+                    @Override
+                    protected int sizeOf(String key, Integer value) {
+                        return value;
+                    }
+                };
+
+        int accesses = 0;
+        int lruHits = 0;
+        int tinyLfuHits = 0;
+        for (int i = 0; i < trace.mKeys.length; i++) {
+            if (trace.mKinds[i] != kind) {
+                continue;
+            }
+            String key = trace.mKeys[i];
+            Integer size = trace.mSizes.get(key);
+            if (size == null) {
+                // Never loaded, e.g. cancelled; neither policy could have held it.
+                continue;
+            }
+
+            accesses++;
+            if (lru.get(key) != null) {
+                lruHits++;
+            } else {
+                lru.put(key, size);
+            }
+            if (tinyLfu.get(key) != null) {
+                tinyLfuHits++;
+            } else {
+                tinyLfu.put(key, size);
+            }
+        }
+        return new Result(accesses, lruHits, tinyLfuHits);
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.xyzreader.ui;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.LongSparseArray;
+
+import com.example.xyzreader.data.ArticleSnapshot;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Relative "3 hours ago" labels for published dates. Labels are computed once per date and
+ * cached, so binding a date is a lookup. While anyone is listening, a single shared
+ * {@link Intent#ACTION_TIME_TICK} receiver recomputes every cached label in the background once a
+ * minute and notifies listeners only when at least one label actually changed. Each new snapshot
+ * replaces the cached dates, so those of articles that left the feed do not pile up.
+ * <p>
+ * All methods must be called on the main thread; listeners are invoked on it.
+ */
+public class DateLabelCache implements MemoryPressureCoordinator.Trimmable {
+    /** Rough fixed footprint of one label besides its characters. */
+    private static final int LABEL_OVERHEAD_BYTES = 56;
+
+    public interface Listener {
+        void onDateLabelsChanged();
+    }
+
+    private static DateLabelCache sInstance;
+
+    public static DateLabelCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DateLabelCache(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final LongSparseArray<String> mLabels = new LongSparseArray<String>();
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final BroadcastReceiver mTickReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            refresh();
+        }
+    };
+
+    private DateLabelCache(Context applicationContext) {
+        mContext = applicationContext;
+        MemoryPressureCoordinator.getInstance(applicationContext).register(this);
+    }
+
+    /** Returns the relative label for {@code publishedDate}, computing it only on a cache miss. */
+    public String getLabel(long publishedDate) {
+        String label = mLabels.get(publishedDate);
+        if (label == null) {
+            label = format(publishedDate, System.currentTimeMillis());
+            mLabels.put(publishedDate, label);
+        }
+        return label;
+    }
+
+    /**
+     * Computes the labels of every row in {@code snapshot} in the background, then drops those of
+     * any other date.
+     */
+    public void prepare(ArticleSnapshot snapshot) {
+        final long[] dates = new long[snapshot.size()];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = snapshot.getPublishedDate(i);
+        }
+        recompute(dates, true);
+    }
+
+    public void addListener(Listener listener) {
+        if (mListeners.isEmpty()) {
+            IntentFilter filter = new IntentFilter(Intent.ACTION_TIME_TICK);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            mContext.registerReceiver(mTickReceiver, filter);
+            // Labels may have gone stale while nobody was listening.
+            refresh();
+        }
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        if (mListeners.remove(listener) && mListeners.isEmpty()) {
+            mContext.unregisterReceiver(mTickReceiver);
+        }
+    }
+
+    /** Drops the labels of the oldest dates first; the list shows newest first. */
+    @Override
+    public long trimToFraction(float keepFraction) {
+        final int remove = mLabels.size() - (int) (mLabels.size() * keepFraction);
+        long released = 0;
+        for (int i = 0; i < remove; i++) {
+            released += LABEL_OVERHEAD_BYTES + 2 * mLabels.valueAt(0).length();
+            mLabels.removeAt(0);
+        }
+        return released;
+    }
+
+    private void refresh() {
+        final long[] dates = new long[mLabels.size()];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = mLabels.keyAt(i);
+        }
+        recompute(dates, false);
+    }
+
+    /** @param replace whether {@code dates} are the only ones to keep labels for */
+    private void recompute(final long[] dates, final boolean replace) {
+        if (dates.length == 0 && !replace) {
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long now = System.currentTimeMillis();
+                final String[] labels = new String[dates.length];
+                for (int i = 0; i < dates.length; i++) {
+                    labels[i] = format(dates[i], now);
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        apply(dates, labels, replace);
+                    }
+                });
+            }
+        });
+    }
+
+    private void apply(long[] dates, String[] labels, boolean replace) {
+        final LongSparseArray<String> previousLabels = replace ? mLabels.clone() : mLabels;
+        if (replace) {
+            mLabels.clear();
+        }
+        boolean changed = false;
+        for (int i = 0; i < dates.length; i++) {
+            String previous = previousLabels.get(dates[i]);
+            if (replace || !labels[i].equals(previous)) {
+                mLabels.put(dates[i], labels[i]);
+            }
+            changed |= previous != null && !labels[i].equals(previous);
+        }
+
+        if (changed) {
+            for (int i = mListeners.size() - 1; i >= 0; i--) {
+                mListeners.get(i).onDateLabelsChanged();
+            }
+        }
+    }
+
+    private static String format(long publishedDate, long now) {
+        return DateUtils.getRelativeTimeSpanString(publishedDate, now,
+                DateUtils.HOUR_IN_MILLIS, DateUtils.FORMAT_ABBREV_ALL).toString();
+    }
+}
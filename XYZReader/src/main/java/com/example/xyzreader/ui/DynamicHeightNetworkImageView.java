@@ -3,10 +3,9 @@ package com.example.xyzreader.ui;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.util.AttributeSet;
+import android.widget.ImageView;
 
-import com.android.volley.toolbox.NetworkImageView;
-
-public class DynamicHeightNetworkImageView extends NetworkImageView {
+public class DynamicHeightNetworkImageView extends ImageView implements ImagePipeline.Target {
     private float mAspectRatio = 1.5f;
 
     public interface ResponseObserver
@@ -15,6 +14,14 @@ public class DynamicHeightNetworkImageView extends NetworkImageView {
     }
 
     private ResponseObserver mObserver;
+    private String mImageUrl;
+    private ImagePipeline mPipeline;
+    private ImagePipeline.Ticket mTicket;
+    /** The bitmap shown, retained through {@link #mPipeline} while it is. */
+    private Bitmap mBitmap;
+    private int mPriority = ImagePipeline.PRIORITY_VISIBLE;
+    private boolean mLoaded;
+    private boolean mAttached;
 
     public void setResponseObserver(ResponseObserver observer) {
         mObserver = observer;
@@ -33,11 +40,121 @@ public class DynamicHeightNetworkImageView extends NetworkImageView {
         super(context, attrs, defStyle);
     }
 
+    /**
+     * Shows the thumbnail at {@code url}, cancelling any load still pending for a previous URL.
+     * Setting the same URL again is a no-op.
+     */
+    public void setImageUrl(String url, ImagePipeline pipeline) {
+        if (url != null && url.equals(mImageUrl)) {
+            return;
+        }
+
+        cancelLoad();
+        mImageUrl = url;
+        mPipeline = pipeline;
+        mLoaded = false;
+        if (mBitmap != null) {
+            // Before API 22 every call wraps the bitmap, even null, in a new drawable.
+            setImageBitmap(null);
+        }
+        loadIfNecessary();
+    }
+
+    /** Returns the URL most recently passed to {@link #setImageUrl}. */
+    public String getImageUrl() {
+        return mImageUrl;
+    }
+
+    /** Sets the priority class of the pending load and of loads this view starts later. */
+    public void setLoadPriority(int priority) {
+        mPriority = priority;
+        if (mTicket != null) {
+            mTicket.setPriority(priority);
+        }
+    }
+
+    /** Cancels any pending load and drops the image, e.g. when the view is recycled. */
+    public void clear() {
+        if (mImageUrl != null) {
+            setImageUrl(null, mPipeline);
+        }
+    }
+
     public void setAspectRatio(float aspectRatio) {
+        if (aspectRatio == mAspectRatio) {
+            return;
+        }
+
         mAspectRatio = aspectRatio;
         requestLayout();
     }
 
+    /**
+     * Starts the load once the view is attached and measured, decoding straight to the measured
+     * width and the height the aspect ratio gives it.
+     */
+    private void loadIfNecessary() {
+        if (mImageUrl == null || mLoaded || mTicket != null || !mAttached) {
+            return;
+        }
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width <= 0) {
+            return;
+        }
+
+        final int height = Math.round(width / mAspectRatio);
+        ImagePipeline.Ticket ticket = mPipeline.load(
+                mImageUrl, ImagePipeline.KIND_THUMBNAIL, width, height, mPriority, this);
+        if (!mLoaded) {
+            mTicket = ticket;
+        }
+    }
+
+    private void cancelLoad() {
+        if (mTicket != null) {
+            mTicket.cancel();
+            mTicket = null;
+        }
+    }
+
+    @Override
+    public void onImageLoaded(String url, Bitmap bitmap, boolean immediate) {
+        mTicket = null;
+        mLoaded = true;
+        setImageBitmap(bitmap);
+    }
+
+    @Override
+    public void onImageFailed(String url) {
+        mTicket = null;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        loadIfNecessary();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // A view scrolled off screen should not keep its download alive, nor hold on to pixels
+        // the pipeline could reuse. Attaching again reloads, normally straight from memory.
+        mAttached = false;
+        cancelLoad();
+        if (mLoaded) {
+            mLoaded = false;
+            setImageBitmap(null);
+        }
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        loadIfNecessary();
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
@@ -47,7 +164,14 @@ public class DynamicHeightNetworkImageView extends NetworkImageView {
 
     @Override
     public void setImageBitmap(Bitmap bm) {
-        mObserver.onSuccess(bm);
+        if (mPipeline != null && bm != mBitmap) {
+            mPipeline.retain(bm);
+            mPipeline.release(mBitmap);
+        }
+        mBitmap = bm;
+        if (mObserver != null) {
+            mObserver.onSuccess(bm);
+        }
         super.setImageBitmap(bm);
     }
 }
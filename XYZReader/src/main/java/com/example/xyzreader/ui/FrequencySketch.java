@@ -0,0 +1,77 @@
+package com.example.xyzreader.ui;
+
+/**
+ * Count-min sketch of how often keys have been seen, with four 4-bit counters per key packed
+ * sixteen to a {@code long}. Once the number of recorded accesses reaches ten times the table
+ * size every counter is halved, so old popularity fades and recent popularity counts more.
+ * Not thread-safe.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    /** Clears the high bit of every counter after a shift right. */
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] mTable;
+    private final int mSampleSize;
+    private int mAdditions;
+
+    FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+        mTable = new long[length];
+        mSampleSize = 10 * length;
+    }
+
+    /** Returns the estimated number of recent accesses to {@code hashCode}, at most 15. */
+    int frequency(int hashCode) {
+        final int hash = spread(hashCode);
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long count = (mTable[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL;
+            frequency = Math.min(frequency, (int) count);
+        }
+        return frequency;
+    }
+
+    void increment(int hashCode) {
+        final int hash = spread(hashCode);
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = offsetOf(hash, i);
+            if (((mTable[index] >>> offset) & 0xfL) != MAX_COUNT) {
+                mTable[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if (added && ++mAdditions >= mSampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < mTable.length; i++) {
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mAdditions /= 2;
+    }
+
+    private int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & (mTable.length - 1);
+    }
+
+    /** Bit offset of the counter for {@code depth} within its {@code long}. */
+    private static int offsetOf(int hash, int depth) {
+        return ((hash >>> (depth << 3)) & 0xf) << 2;
+    }
+
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.xyzreader.ui;
+
+import java.util.HashMap;
+
+/**
+ * The most recent memory-cache lookups made by {@link ImagePipeline}, kept in a ring buffer as
+ * (kind, key) pairs together with the decoded size of the keys in it, so the real access pattern
+ * of the grid and detail screens can be replayed by {@link CacheSimulator}. Sizes are dropped
+ * with the last access to their key that the ring still holds, so the trace stays bounded.
+ * Main thread only.
+ */
+final class ImageAccessTrace {
+    private final byte[] mKinds;
+    private final String[] mKeys;
+    /** Accesses to each key still in the ring. */
+    private final HashMap<String, int[]> mAccessCounts = new HashMap<String, int[]>();
+    private final HashMap<String, Integer> mSizes = new HashMap<String, Integer>();
+    private int mNext;
+    private int mCount;
+
+    ImageAccessTrace(int capacity) {
+        mKinds = new byte[capacity];
+        mKeys = new String[capacity];
+    }
+
+    void recordAccess(int kind, String key) {
+        final String overwritten = mKeys[mNext];
+        if (overwritten != null) {
+            int[] count = mAccessCounts.get(overwritten);
+            if (--count[0] == 0) {
+                mAccessCounts.remove(overwritten);
+                mSizes.remove(overwritten);
+            }
+        }
+
+        mKinds[mNext] = (byte) kind;
+        mKeys[mNext] = key;
+        int[] count = mAccessCounts.get(key);
+        if (count == null) {
+            mAccessCounts.put(key, new int[] { 1 });
+        } else {
+            count[0]++;
+        }
+        mNext = (mNext + 1) % mKeys.length;
+        mCount = Math.min(mCount + 1, mKeys.length);
+    }
+
+    /** Records the decoded size of {@code key}, unless the ring no longer holds an access to it. */
+    void recordSize(String key, int bytes) {
+        if (mAccessCounts.containsKey(key)) {
+            mSizes.put(key, bytes);
+        }
+    }
+
+    /** Copies the trace, oldest access first, for replay off the main thread. */
+    Snapshot snapshot() {
+        final int start = mCount < mKeys.length ? 0 : mNext;
+        byte[] kinds = new byte[mCount];
+        String[] keys = new String[mCount];
+        for (int i = 0; i < mCount; i++) {
+            int index = (start + i) % mKeys.length;
+            kinds[i] = mKinds[index];
+            keys[i] = mKeys[index];
+        }
+        return new Snapshot(kinds, keys, new HashMap<String, Integer>(mSizes));
+    }
+
+    static final class Snapshot {
+        final byte[] mKinds;
+        final String[] mKeys;
+        /** Decoded size in bytes by key; keys that never loaded are absent. */
+        final HashMap<String, Integer> mSizes;
+
+        Snapshot(byte[] kinds, String[] keys, HashMap<String, Integer> sizes) {
+            mKinds = kinds;
+            mKeys = keys;
+            mSizes = sizes;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * Decodes encoded image bytes to at most a requested size, subsampling by powers of two while
+ * decoding and scaling the result down to the exact bound. Both steps draw their buffers from a
+ * {@link BitmapPool} when it has one that fits, and the intermediate goes back to it afterwards.
+ * <p>
+ * Opaque sources can be decoded to a 16-bit config at half the memory; sources that may have an
+ * alpha channel always get {@link Bitmap.Config#ARGB_8888}.
+ */
+final class ImageDecoder {
+    private static final String TAG = "ImageDecoder";
+
+    private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /** Dithers when scaling into a 16-bit target, which would otherwise show banding. */
+    private static final Paint SCALE_DITHER_PAINT =
+            new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decodes {@code data} to fit within {@code maxWidth} x {@code maxHeight}, keeping the aspect
+     * ratio. A bound of 0 leaves that dimension unconstrained. Returns {@code null} if the bytes
+     * cannot be decoded. The result is mutable, so it can be pooled once no longer used.
+     */
+    static Bitmap decode(byte[] data, int maxWidth, int maxHeight, BitmapPool pool) {
+        return decode(data, maxWidth, maxHeight, Bitmap.Config.ARGB_8888, pool);
+    }
+
+    /**
+     * Like {@link #decode(byte[], int, int, BitmapPool)}, decoding JPEG sources, which cannot
+     * have alpha, to {@code opaqueConfig}.
+     */
+    static Bitmap decode(byte[] data, int maxWidth, int maxHeight, Bitmap.Config opaqueConfig,
+            BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        final int sourceWidth = options.outWidth;
+        final int sourceHeight = options.outHeight;
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return null;
+        }
+
+        float scale = 1f;
+        if (maxWidth > 0) {
+            scale = Math.min(scale, (float) maxWidth / sourceWidth);
+        }
+        if (maxHeight > 0) {
+            scale = Math.min(scale, (float) maxHeight / sourceHeight);
+        }
+        final int targetWidth = Math.max(1, Math.round(sourceWidth * scale));
+        final int targetHeight = Math.max(1, Math.round(sourceHeight * scale));
+
+        final Bitmap.Config config = "image/jpeg".equals(options.outMimeType)
+                ? opaqueConfig : Bitmap.Config.ARGB_8888;
+        final int sampleSize = sampleSizeFor(sourceWidth, sourceHeight, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = config;
+        options.inDither = config != Bitmap.Config.ARGB_8888;
+        // Decoders round subsampled dimensions differently; size the reused buffer for the larger.
+        options.inBitmap = pool.get(ceilDiv(sourceWidth, sampleSize), ceilDiv(sourceHeight, sampleSize),
+                config);
+        Bitmap sampled = decodeReusing(data, options, pool);
+        if (sampled == null) {
+            if (options.inBitmap != null) {
+                pool.put(options.inBitmap);
+            }
+            return null;
+        }
+
+        if (sampled.getWidth() > targetWidth || sampled.getHeight() > targetHeight) {
+            Bitmap scaled = scale(sampled, targetWidth, targetHeight, pool);
+            if (!pool.put(sampled)) {
+                sampled.recycle();
+            }
+            return scaled;
+        }
+        return sampled;
+    }
+
+    /** Largest power of two that keeps the decoded image at least as large as the target. */
+    static int sampleSizeFor(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= targetWidth
+                && sourceHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decodeReusing(byte[] data, BitmapFactory.Options options, BitmapPool pool) {
+        final Bitmap reused = options.inBitmap;
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            if (reused == null) {
+                throw e;
+            }
+            // The codec refused the buffer; return it and decode into a fresh one.
+            Log.d(TAG, "Could not reuse pooled bitmap", e);
+            options.inBitmap = null;
+            pool.put(reused);
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    private static Bitmap scale(Bitmap source, int width, int height, BitmapPool pool) {
+        final Bitmap.Config config = source.getConfig() != null
+                ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = pool.get(width, height, config);
+        if (target == null) {
+            target = Bitmap.createBitmap(width, height, config);
+        } else if (source.hasAlpha()) {
+            target.eraseColor(0);
+        }
+        target.setHasAlpha(source.hasAlpha());
+
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(source, null, new Rect(0, 0, width, height),
+                config == Bitmap.Config.ARGB_8888 ? SCALE_PAINT : SCALE_DITHER_PAINT);
+        return target;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,560 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent LRU cache of encoded image variants, bounded in bytes. Keys combine the source URL
+ * with the decoded size (see {@link #keyFor}), so each size the UI displays is stored and served
+ * on its own without touching the full-resolution original.
+ * <p>
+ * Entries can also be pinned, e.g. for articles saved for offline reading. Pinned entries live in
+ * a segment of their own that is neither counted against the size bound nor evicted; they return
+ * to the LRU segment only when unpinned through {@link #retainPinned}.
+ * <p>
+ * The LRU order lives in an append-only journal of {@code PUT}, {@code PIN}, {@code READ} and
+ * {@code DEL} lines. When the journal grows well past the number of live entries it is rewritten as one
+ * {@code PUT} per entry in LRU order, which keeps the index small enough to replay quickly at
+ * startup. {@code READ} lines only refine the LRU order, so they are flushed in batches; losing
+ * the last few in a crash costs nothing but a slightly staler order. The cache opens lazily on
+ * first use, so it must not be touched on the main thread.
+ */
+public class ImageDiskCache {
+    private static final String TAG = "ImageDiskCache";
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String MAGIC = "xyzreader.imagecache";
+    private static final String VERSION = "1";
+    private static final String PUT = "PUT";
+    private static final String PIN = "PIN";
+    private static final String READ = "READ";
+    private static final String DEL = "DEL";
+    private static final String ENTRY_SUFFIX = ".img";
+    private static final String TMP_SUFFIX = ".tmp";
+    /** Journal lines allowed beyond twice the live entry count before it is compacted. */
+    private static final int COMPACT_SLACK = 500;
+    /** {@code READ} lines buffered before the journal is flushed. */
+    private static final int READ_FLUSH_BATCH = 64;
+    private static final int JPEG_QUALITY = 90;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(64, 0.75f, true);
+    private final HashMap<String, Long> mPinned = new HashMap<String, Long>();
+    private Writer mJournal;
+    private int mJournalLines;
+    private int mUnflushedReads;
+    private long mSize;
+    private long mPinnedSize;
+    private int mHitCount;
+    private int mMissCount;
+
+    public ImageDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /** Returns the cache key for {@code url} decoded to {@code width} x {@code height}. */
+    public static String keyFor(String url, int width, int height) {
+        return hash(url) + "_" + width + "x" + height;
+    }
+
+    /** Encodes {@code bitmap} for storage: JPEG when opaque, lossless PNG otherwise. */
+    public static byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                bitmap.getWidth() * bitmap.getHeight() / 4);
+        if (bitmap.hasAlpha()) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } else {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        }
+        return out.toByteArray();
+    }
+
+    public synchronized boolean contains(String key) {
+        ensureOpen();
+        return mEntries.containsKey(key) || mPinned.containsKey(key);
+    }
+
+    /**
+     * Returns the key of a pinned variant of {@code url} at any size, or {@code null} if none is
+     * pinned.
+     */
+    public synchronized String findPinned(String url) {
+        ensureOpen();
+        final String prefix = hash(url) + "_";
+        for (String key : mPinned.keySet()) {
+            if (key.startsWith(prefix)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the stored bytes for {@code key}, or {@code null} on a miss or read error. */
+    public byte[] get(String key) {
+        File file;
+        synchronized (this) {
+            ensureOpen();
+            if (mPinned.containsKey(key)) {
+                mHitCount++;
+            } else if (mEntries.get(key) != null) {
+                mHitCount++;
+                appendJournal(READ, key, -1);
+            } else {
+                mMissCount++;
+                return null;
+            }
+            file = entryFile(key);
+        }
+
+        try {
+            return readFully(file);
+        } catch (FileNotFoundException e) {
+            // Trimmed or removed since the lock was released; check again where nothing can
+            // change it.
+            return getLocked(key);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable entry " + key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    private synchronized byte[] getLocked(String key) {
+        if (!mEntries.containsKey(key) && !mPinned.containsKey(key)) {
+            mHitCount--;
+            mMissCount++;
+            return null;
+        }
+        try {
+            return readFully(entryFile(key));
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable entry " + key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /** Stores {@code data} under {@code key}; an entry that is pinned stays pinned. */
+    public void put(String key, byte[] data) {
+        write(key, data, false);
+    }
+
+    /** Stores {@code data} under {@code key} in the pinned segment. */
+    public void putPinned(String key, byte[] data) {
+        write(key, data, true);
+    }
+
+    /**
+     * Moves an existing entry into the pinned segment.
+     *
+     * @return the entry's size in bytes, or -1 if there is no entry for {@code key}
+     */
+    public synchronized long pin(String key) {
+        ensureOpen();
+        Long size = mPinned.get(key);
+        if (size != null) {
+            return size;
+        }
+
+        size = mEntries.remove(key);
+        if (size == null) {
+            return -1;
+        }
+        mSize -= size;
+        mPinned.put(key, size);
+        mPinnedSize += size;
+        appendJournal(PIN, key, size);
+        return size;
+    }
+
+    /**
+     * Unpins every pinned entry not in {@code keys}. Unpinned entries join the LRU segment as if
+     * just written and age out of it from there.
+     */
+    public synchronized void retainPinned(Set<String> keys) {
+        ensureOpen();
+        Iterator<Map.Entry<String, Long>> it = mPinned.entrySet().iterator();
+        boolean unpinned = false;
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (!keys.contains(entry.getKey())) {
+                it.remove();
+                mPinnedSize -= entry.getValue();
+                mEntries.put(entry.getKey(), entry.getValue());
+                mSize += entry.getValue();
+                appendJournal(PUT, entry.getKey(), entry.getValue());
+                unpinned = true;
+            }
+        }
+        if (unpinned) {
+            trimToSize(mMaxBytes);
+        }
+    }
+
+    private void write(String key, byte[] data, boolean pinned) {
+        if (!pinned && data.length > mMaxBytes) {
+            return;
+        }
+
+        // Opening first deletes the temporary files a crash left behind, never this one.
+        synchronized (this) {
+            ensureOpen();
+        }
+
+        // Write outside the lock under a unique name, then publish with a rename.
+        File tmp = new File(mDirectory, key + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        try {
+            mDirectory.mkdirs();
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write entry " + key, e);
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (!tmp.renameTo(entryFile(key))) {
+                tmp.delete();
+                return;
+            }
+            Long previous = mEntries.remove(key);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            previous = mPinned.remove(key);
+            if (previous != null) {
+                mPinnedSize -= previous;
+                pinned = true;
+            }
+
+            if (pinned) {
+                mPinned.put(key, (long) data.length);
+                mPinnedSize += data.length;
+                appendJournal(PIN, key, data.length);
+            } else {
+                mEntries.put(key, (long) data.length);
+                mSize += data.length;
+                appendJournal(PUT, key, data.length);
+                trimToSize(mMaxBytes);
+            }
+        }
+    }
+
+    public synchronized void remove(String key) {
+        ensureOpen();
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        } else if ((size = mPinned.remove(key)) != null) {
+            mPinnedSize -= size;
+        } else {
+            return;
+        }
+        entryFile(key).delete();
+        appendJournal(DEL, key, -1);
+    }
+
+    /** Bytes currently stored in the LRU segment. */
+    public synchronized long size() {
+        ensureOpen();
+        return mSize;
+    }
+
+    /** Bytes currently stored in the pinned segment. */
+    public synchronized long pinnedSize() {
+        ensureOpen();
+        return mPinnedSize;
+    }
+
+    public long maxSize() {
+        return mMaxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageDiskCache[entries=" + mEntries.size() + ", size=" + mSize + "/" + mMaxBytes
+                + ", pinned=" + mPinned.size() + " (" + mPinnedSize + " bytes), hits=" + mHitCount + ", misses=" + mMissCount + "]";
+    }
+
+    private void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            mSize -= eldest.getValue();
+            entryFile(eldest.getKey()).delete();
+            appendJournal(DEL, eldest.getKey(), -1);
+        }
+    }
+
+    private void ensureOpen() {
+        if (mJournal != null) {
+            return;
+        }
+
+        mDirectory.mkdirs();
+        deleteTemporaryFiles();
+        File journal = new File(mDirectory, JOURNAL);
+        if (journal.exists()) {
+            try {
+                replayJournal(journal);
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding corrupt journal", e);
+                mEntries.clear();
+                mPinned.clear();
+                mSize = 0;
+                mPinnedSize = 0;
+                File[] files = mDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+
+        // Entries whose file went missing (e.g. cleared by the system) are dropped here.
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (!entryFile(entry.getKey()).exists()) {
+                mSize -= entry.getValue();
+                it.remove();
+            }
+        }
+        it = mPinned.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (!entryFile(entry.getKey()).exists()) {
+                mPinnedSize -= entry.getValue();
+                it.remove();
+            }
+        }
+        deleteUnindexedEntries();
+
+        if (!journal.exists() || mJournalLines > compactThreshold()) {
+            rewriteJournal();
+        } else {
+            try {
+                mJournal = new FileWriter(journal, true);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to open journal", e);
+                rewriteJournal();
+            }
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    /** Deletes entries and journals that were still being written when the process died. */
+    private void deleteTemporaryFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes entry files the journal does not know about, e.g. one renamed into place just
+     * before a crash kept its {@code PUT} line from being written. They would otherwise take
+     * space outside the size bound forever. No write can publish an entry while the cache opens.
+     */
+    private void deleteUnindexedEntries() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(ENTRY_SUFFIX)) {
+                continue;
+            }
+            final String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+            if (!mEntries.containsKey(key) && !mPinned.containsKey(key)) {
+                Log.w(TAG, "Deleting unindexed entry " + key);
+                file.delete();
+            }
+        }
+    }
+
+    private void replayJournal(File journal) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(journal));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mJournalLines++;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // A torn final line from a crash mid-append; everything before it is intact.
+                    continue;
+                }
+                String key = parts[1];
+                if ((PUT.equals(parts[0]) || PIN.equals(parts[0])) && parts.length == 3) {
+                    long size = Long.parseLong(parts[2]);
+                    forgetOnReplay(key);
+                    if (PIN.equals(parts[0])) {
+                        mPinned.put(key, size);
+                        mPinnedSize += size;
+                    } else {
+                        mEntries.put(key, size);
+                        mSize += size;
+                    }
+                } else if (READ.equals(parts[0])) {
+                    mEntries.get(key);
+                } else if (DEL.equals(parts[0])) {
+                    forgetOnReplay(key);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed journal line", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void forgetOnReplay(String key) {
+        Long previous = mEntries.remove(key);
+        if (previous != null) {
+            mSize -= previous;
+        }
+        previous = mPinned.remove(key);
+        if (previous != null) {
+            mPinnedSize -= previous;
+        }
+    }
+
+    private void rewriteJournal() {
+        try {
+            if (mJournal != null) {
+                mJournal.close();
+            }
+
+            File tmp = new File(mDirectory, JOURNAL_TMP);
+            Writer writer = new FileWriter(tmp, false);
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for (Map.Entry<String, Long> entry : mPinned.entrySet()) {
+                writer.write(PIN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(PUT + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            if (!tmp.renameTo(new File(mDirectory, JOURNAL))) {
+                throw new IOException("Failed to replace journal");
+            }
+
+            mJournal = new FileWriter(new File(mDirectory, JOURNAL), true);
+            mJournalLines = mEntries.size() + mPinned.size();
+            mUnflushedReads = 0;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to rewrite journal", e);
+            mJournal = new NullWriter();
+        }
+    }
+
+    private void appendJournal(String op, String key, long size) {
+        try {
+            mJournal.write(size >= 0 ? op + " " + key + " " + size + "\n" : op + " " + key + "\n");
+            if (op != READ || ++mUnflushedReads >= READ_FLUSH_BATCH) {
+                mJournal.flush();
+                mUnflushedReads = 0;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append to journal", e);
+        }
+
+        if (++mJournalLines > compactThreshold()) {
+            rewriteJournal();
+        }
+    }
+
+    private int compactThreshold() {
+        return 2 * (mEntries.size() + mPinned.size()) + COMPACT_SLACK;
+    }
+
+    private File entryFile(String key) {
+        return new File(mDirectory, key + ENTRY_SUFFIX);
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            // Sized from the open file, which a concurrent put may have replaced by now.
+            byte[] data = new byte[(int) in.getChannel().size()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Truncated entry " + file);
+                }
+                offset += read;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /** Stand-in journal when the real one cannot be written; the cache still works in memory. */
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] buf, int offset, int count) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.xyzreader.ui;
+
+import android.os.SystemClock;
+
+import com.example.xyzreader.remote.RemoteEndpointUtil;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Downloads encoded image bytes over a client derived from the app's single {@link OkHttpClient}
+ * (see {@link RemoteEndpointUtil#getHttpClient}), so images and the feed share one connection
+ * pool. Blocking; called from {@link ImagePipeline} worker threads only.
+ * <p>
+ * Concurrent fetches of one URL share a single download, so every size variant waiting on the
+ * same source is fed by one request. URLs that fail are remembered and not requested again until
+ * a backoff has passed, doubling with each further failure. Only the most recently failed
+ * {@link #MAX_FAILED_URLS} URLs are remembered.
+ */
+class ImageFetcher {
+    private static final int TIMEOUT_SECONDS = 15;
+    private static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+    private static final int MAX_FAILED_URLS = 256;
+
+    private final OkHttpClient mClient = RemoteEndpointUtil.getHttpClient().newBuilder()
+            .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    private final HashMap<String, PendingFetch> mPending = new HashMap<String, PendingFetch>();
+    /** Ordered by last failure, so URLs that have not failed for longest are forgotten first. */
+    private final LinkedHashMap<String, Failure> mFailures =
+            new LinkedHashMap<String, Failure>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+                    return size() > MAX_FAILED_URLS;
+                }
+            };
+    private int mFetchCount;
+    private int mCoalescedCount;
+    private int mSuppressedCount;
+
+    private static class PendingFetch {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        byte[] mData;
+        IOException mError;
+    }
+
+    private static class Failure {
+        int mCount;
+        long mRetryAt;
+    }
+
+    /**
+     * Returns the bytes at {@code url}, joining a download already in progress if there is one.
+     * Throws without touching the network while {@code url} is backing off from a failure.
+     */
+    byte[] fetch(String url) throws IOException {
+        PendingFetch pending;
+        boolean owner = false;
+        synchronized (this) {
+            Failure failure = mFailures.get(url);
+            if (failure != null && SystemClock.elapsedRealtime() < failure.mRetryAt) {
+                mSuppressedCount++;
+                throw new IOException("Backing off after " + failure.mCount + " failures: " + url);
+            }
+
+            pending = mPending.get(url);
+            if (pending == null) {
+                pending = new PendingFetch();
+                mPending.put(url, pending);
+                mFetchCount++;
+                owner = true;
+            } else {
+                mCoalescedCount++;
+            }
+        }
+
+        if (owner) {
+            try {
+                pending.mData = download(url);
+            } catch (IOException e) {
+                pending.mError = e;
+            } catch (RuntimeException e) {
+                // e.g. a malformed URL; waiters must still be released.
+                pending.mError = new IOException("Failed to fetch " + url, e);
+            }
+            synchronized (this) {
+                mPending.remove(url);
+                if (pending.mError == null) {
+                    mFailures.remove(url);
+                } else {
+                    recordFailure(url);
+                }
+            }
+            pending.mDone.countDown();
+        } else {
+            try {
+                pending.mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + url);
+            }
+        }
+
+        if (pending.mError != null) {
+            throw pending.mError;
+        }
+        return pending.mData;
+    }
+
+    /** Records that bytes fetched from {@code url} could not be used, e.g. were not an image. */
+    synchronized void reportUnusable(String url) {
+        recordFailure(url);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageFetcher[fetches=" + mFetchCount + ", coalesced=" + mCoalescedCount
+                + ", suppressed=" + mSuppressedCount + ", failing=" + mFailures.size() + "]";
+    }
+
+    private void recordFailure(String url) {
+        Failure failure = mFailures.remove(url);
+        if (failure == null) {
+            failure = new Failure();
+        }
+        mFailures.put(url, failure);
+        failure.mCount++;
+        long backoff = Math.min(MAX_BACKOFF_MILLIS,
+                INITIAL_BACKOFF_MILLIS << Math.min(failure.mCount - 1, 16));
+        failure.mRetryAt = SystemClock.elapsedRealtime() + backoff;
+    }
+
+    private byte[] download(String url) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
+
+        Response response = mClient.newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code() + " for " + url);
+            }
+            return response.body().bytes();
+        } finally {
+            response.body().close();
+        }
+    }
+}
@@ -0,0 +1,793 @@
+package com.example.xyzreader.ui;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.example.xyzreader.BuildConfig;
+import com.example.xyzreader.data.ArticleSnapshot;
+import com.example.xyzreader.remote.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The app's only image loader, shared by the grid and the detail header: one
+ * {@link ImageFetcher} and one cache hierarchy of {@link BitmapMemoryCache} in front of
+ * {@link ImageDiskCache} in front of the network.
+ * <p>
+ * A job runs in two stages on two pools: a fetch stage that reads the disk cache or downloads,
+ * on an I/O pool sized for concurrency, then a decode stage on a pool sized to the CPU cores. A
+ * slow download therefore never holds a core idle, and a large decode never holds up a download.
+ * Each stage keeps its own {@link StageStats}.
+ * <p>
+ * Downloads ask the host for a copy resized to the requested width when
+ * {@link Config#IMAGE_URL_TEMPLATE} is set (see {@link ImageUrlTemplate}), and fall back to the
+ * feed URL when that fails. Caches are keyed by the feed URL either way.
+ * <p>
+ * Requests for the same image variant while one is in flight share a single job, and jobs for
+ * different variants of one source share its download (see {@link ImageFetcher}). Queued jobs
+ * run in priority order ({@link #PRIORITY_VISIBLE} before {@link #PRIORITY_PREFETCH} before
+ * {@link #PRIORITY_BACKGROUND}, oldest first within a class), and a job takes the most urgent
+ * priority of the tickets attached to it. Work that only stores images on disk, warming up
+ * thumbnails and pinning offline photos, runs as jobs at {@link #PRIORITY_BACKGROUND} in the same
+ * queues, so loads for the screen overtake it at either stage. Public methods must be called on
+ * the main thread unless documented otherwise; targets are called back on it.
+ */
+public class ImagePipeline {
+    private static final String TAG = "ImagePipeline";
+
+    public static final int KIND_THUMBNAIL = 0;
+    public static final int KIND_PHOTO = 1;
+
+    /** On screen now. */
+    public static final int PRIORITY_VISIBLE = 0;
+    /** Laid out just outside the viewport, likely to be shown next. */
+    public static final int PRIORITY_PREFETCH = 1;
+    /** Not tied to anything the user is looking at. */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    /** 32 bits per pixel. The default for {@link #KIND_PHOTO}. */
+    public static final int QUALITY_FULL = 0;
+    /**
+     * 16 bits per pixel for opaque images, at half the memory of {@link #QUALITY_FULL}; images
+     * that may have alpha stay at full quality. The default for {@link #KIND_THUMBNAIL}.
+     */
+    public static final int QUALITY_COMPACT = 1;
+
+    private static final long DISK_CACHE_BYTES = 50L * 1024 * 1024;
+    private static final int IO_THREADS = 6;
+    /** Decodes of large photos are memory-hungry, so the decode pool stays small on big chips. */
+    private static final int MAX_DECODE_THREADS = 4;
+    private static final int MAX_THUMBNAIL_KEYS = 512;
+    private static final int TRACE_CAPACITY = 8192;
+    private static final String PREFS_NAME = "image_pipeline";
+    private static final String PREF_THUMBNAIL_WIDTH = "thumbnail_width";
+    private static final String PREF_PHOTO_VIEW_WIDTH = "photo_view_width";
+    private static final String PREF_PHOTO_VIEW_HEIGHT = "photo_view_height";
+    /** Assumed for photos whose aspect ratio is missing. */
+    private static final float DEFAULT_ASPECT_RATIO = 1.5f;
+
+    public interface Target {
+        /**
+         * @param immediate {@code true} when served from memory during the {@code load} call
+         */
+        void onImageLoaded(String url, Bitmap bitmap, boolean immediate);
+
+        void onImageFailed(String url);
+    }
+
+    /** Handle to a pending load; cancelling it guarantees its target is not called. */
+    public static final class Ticket {
+        /** Returned for loads that completed synchronously from memory. */
+        static final Ticket DONE = new Ticket(null, null, PRIORITY_VISIBLE);
+
+        private final Job mJob;
+        private final Target mTarget;
+        private int mPriority;
+        private boolean mFinished;
+
+        private Ticket(Job job, Target target, int priority) {
+            mJob = job;
+            mTarget = target;
+            mPriority = priority;
+        }
+
+        /** Moves this load to another priority class; no effect once it has started running. */
+        public void setPriority(int priority) {
+            if (!mFinished && mJob != null && priority != mPriority) {
+                mPriority = priority;
+                mJob.reprioritize();
+            }
+        }
+
+        public void cancel() {
+            if (!mFinished && mJob != null) {
+                mFinished = true;
+                mJob.detach(this);
+            }
+        }
+    }
+
+    private static ImagePipeline sInstance;
+
+    /**
+     * Any thread: creating the pipeline needs no looper of the caller's, as results are posted
+     * through the main looper. Background callers such as services may get it on their worker.
+     */
+    public static synchronized ImagePipeline getInstance(Context context) {
+        if (sInstance == null) {
+            Context applicationContext = context.getApplicationContext();
+            sInstance = new ImagePipeline(applicationContext,
+                    new ImageUrlTemplate(Config.IMAGE_URL_TEMPLATE,
+                            applicationContext.getResources().getDisplayMetrics().density),
+                    new File(applicationContext.getCacheDir(), "images"));
+            MemoryPressureCoordinator.getInstance(applicationContext)
+                    .register(sInstance.mMemoryCache);
+        }
+
+        return sInstance;
+    }
+
+    private final BitmapMemoryCache mMemoryCache;
+    private final ImageDiskCache mDiskCache;
+    private final ImageFetcher mFetcher = new ImageFetcher();
+    private final ImageUrlTemplate mUrlTemplate;
+    private final ThreadPoolExecutor mIoExecutor = newPriorityExecutor(IO_THREADS);
+    private final ThreadPoolExecutor mDecodeExecutor = newPriorityExecutor(
+            Math.max(1, Math.min(MAX_DECODE_THREADS, Runtime.getRuntime().availableProcessors())));
+    private final StageStats mFetchStats = new StageStats("fetch");
+    private final StageStats mDecodeStats = new StageStats("decode");
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final SharedPreferences mPrefs;
+    private final HashMap<String, Job> mInFlight = new HashMap<String, Job>();
+    /** Memory key of the most recently cached thumbnail variant of each URL. */
+    private final LruCache<String, String> mThumbnailKeys = new LruCache<String, String>(MAX_THUMBNAIL_KEYS);
+    /** Memory lookups recorded for {@link #logCacheSimulation}; debug builds only. */
+    private final ImageAccessTrace mTrace =
+            BuildConfig.DEBUG ? new ImageAccessTrace(TRACE_CAPACITY) : null;
+    /** Orders jobs within a priority class; background jobs are created off the main thread. */
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private int mJoinedCount;
+    /** Width the grid last loaded thumbnails at, persisted for {@link #warmUpThumbnails}. */
+    private volatile int mThumbnailWidth;
+    /** Size the detail header was last laid out at, persisted for {@link #pinPhoto}. */
+    private volatile int mPhotoViewWidth;
+    private volatile int mPhotoViewHeight;
+
+    /**
+     * Builds a pipeline with its own caches; use {@link #getInstance} outside tests. It is not
+     * registered with {@link MemoryPressureCoordinator}.
+     */
+    ImagePipeline(Context applicationContext, ImageUrlTemplate urlTemplate, File diskDirectory) {
+        mMemoryCache = new BitmapMemoryCache(applicationContext);
+        mDiskCache = new ImageDiskCache(diskDirectory, DISK_CACHE_BYTES);
+        mUrlTemplate = urlTemplate;
+        mPrefs = applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mThumbnailWidth = mPrefs.getInt(PREF_THUMBNAIL_WIDTH, 0);
+        mPhotoViewWidth = mPrefs.getInt(PREF_PHOTO_VIEW_WIDTH, 0);
+        mPhotoViewHeight = mPrefs.getInt(PREF_PHOTO_VIEW_HEIGHT, 0);
+    }
+
+    /**
+     * Loads {@code url} decoded to fit within {@code width} x {@code height}, the size it will be
+     * displayed at, into the {@link #KIND_THUMBNAIL} or {@link #KIND_PHOTO} pool at the kind's
+     * default quality. Only that variant is cached. On a memory hit the target is called before
+     * this returns and {@link Ticket#DONE} is returned.
+     */
+    public Ticket load(String url, int kind, int width, int height, int priority, Target target) {
+        return load(url, kind, width, height, defaultQuality(kind), priority, target);
+    }
+
+    /** The quality images of {@code kind} are decoded at unless the caller asks otherwise. */
+    public static int defaultQuality(int kind) {
+        return kind == KIND_THUMBNAIL ? QUALITY_COMPACT : QUALITY_FULL;
+    }
+
+    /**
+     * Bytes per pixel of an opaque image decoded at {@code quality}, for sizing memory budgets.
+     * Images with alpha always take 4.
+     */
+    public static int bytesPerPixel(int quality) {
+        return quality == QUALITY_COMPACT ? 2 : 4;
+    }
+
+    /**
+     * Like {@link #load(String, int, int, int, int, Target)}, decoding at {@code quality},
+     * {@link #QUALITY_FULL} or {@link #QUALITY_COMPACT}. Each quality is cached separately, in
+     * memory and on disk.
+     */
+    public Ticket load(String url, int kind, int width, int height, int quality, int priority,
+            Target target) {
+        if (kind == KIND_THUMBNAIL && width != mThumbnailWidth) {
+            mThumbnailWidth = width;
+            mPrefs.edit().putInt(PREF_THUMBNAIL_WIDTH, width).apply();
+        }
+
+        final String key = memoryKey(url, width, height, quality);
+        Bitmap cached = poolFor(kind).get(key);
+        if (mTrace != null) {
+            mTrace.recordAccess(kind, key);
+        }
+        if (cached != null) {
+            target.onImageLoaded(url, cached, true);
+            return Ticket.DONE;
+        }
+
+        Ticket ticket;
+        Job job = mInFlight.get(key);
+        if (job == null) {
+            job = new Job(key, url, kind, width, height, quality, priority,
+                    mNextSequence.getAndIncrement(), null);
+            ticket = new Ticket(job, target, priority);
+            job.mTickets.add(ticket);
+            mInFlight.put(key, job);
+            job.enqueue(Job.STAGE_FETCH);
+        } else {
+            ticket = new Ticket(job, target, priority);
+            job.mTickets.add(ticket);
+            job.reprioritize();
+            mJoinedCount++;
+        }
+        return ticket;
+    }
+
+    /**
+     * Returns a thumbnail of {@code url} already in memory, at whatever size the grid decoded it,
+     * or {@code null}. Never starts a load; used as a placeholder while a larger image loads.
+     */
+    public Bitmap peekThumbnail(String url) {
+        String key = url != null ? mThumbnailKeys.get(url) : null;
+        if (key == null) {
+            return null;
+        }
+
+        Bitmap bitmap = mMemoryCache.getThumbnails().get(key);
+        if (bitmap == null) {
+            mThumbnailKeys.remove(url);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Downloads the thumbnails of the first {@code count} of {@code articles}, downsamples them
+     * to the size the grid last loaded thumbnails at and stores them in the disk cache only, so
+     * the first scroll after a refresh reads from disk rather than the network. Thumbnails already
+     * on disk are skipped. No new download starts once {@code byteBudget} bytes have been
+     * downloaded or {@code timeoutMillis} have passed.
+     * <p>
+     * Blocks until done; call it on a background thread.
+     *
+     * @return the number of thumbnails stored
+     */
+    public int warmUpThumbnails(ArticleSnapshot articles, int count, long byteBudget,
+            long timeoutMillis) {
+        final int width = mThumbnailWidth;
+        if (width <= 0) {
+            // The grid has never been laid out, so the size it will ask for is unknown.
+            return 0;
+        }
+
+        final long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        final AtomicLong remaining = new AtomicLong(byteBudget);
+        final int quality = defaultQuality(KIND_THUMBNAIL);
+        ArrayList<StoreRequest> requests = new ArrayList<StoreRequest>();
+        for (int i = 0, n = Math.min(count, articles.size()); i < n; i++) {
+            final String url = articles.getThumbUrl(i);
+            if (url == null) {
+                continue;
+            }
+
+            // The same arithmetic as the grid's views, so the disk keys match.
+            final int height = Math.round(width / articles.getAspectRatio(i));
+            StoreRequest request = new StoreRequest(false, remaining, deadline);
+            store(url, KIND_THUMBNAIL, width, height, quality, request);
+            requests.add(request);
+        }
+
+        // Jobs are not cancelled at the deadline, only kept from starting downloads: interrupting
+        // a download would count as a failure and put the URL into back-off for the grid as well.
+        int stored = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i).await()) {
+                stored++;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Records the size the detail header is laid out at, so photos can be saved ahead of time at
+     * the size the header will ask for. Any thread.
+     */
+    public void setPhotoViewSize(int width, int height) {
+        if (width != mPhotoViewWidth || height != mPhotoViewHeight) {
+            mPhotoViewWidth = width;
+            mPhotoViewHeight = height;
+            mPrefs.edit()
+                    .putInt(PREF_PHOTO_VIEW_WIDTH, width)
+                    .putInt(PREF_PHOTO_VIEW_HEIGHT, height)
+                    .apply();
+        }
+    }
+
+    /**
+     * Width a photo of {@code aspectRatio} is decoded at to cover a center-cropping view of
+     * {@code viewWidth} x {@code viewHeight} with as few pixels as possible.
+     */
+    public static int coverWidth(int viewWidth, int viewHeight, float aspectRatio) {
+        final float ratio = aspectRatio > 0 ? aspectRatio : DEFAULT_ASPECT_RATIO;
+        return Math.max(viewWidth, (int) Math.ceil(viewHeight * ratio));
+    }
+
+    /** Height counterpart of {@link #coverWidth}. */
+    public static int coverHeight(int viewWidth, int viewHeight, float aspectRatio) {
+        final float ratio = aspectRatio > 0 ? aspectRatio : DEFAULT_ASPECT_RATIO;
+        return Math.max(viewHeight, (int) Math.ceil(viewWidth / ratio));
+    }
+
+    /**
+     * Stores the photo at {@code url} in the pinned segment of the disk cache at the size the
+     * detail header will load it at, downloading it only if that variant is not on disk already.
+     * Pinned photos survive eviction until released through
+     * {@link ImageDiskCache#retainPinned}. Blocks; call it on a background thread.
+     * <p>
+     * Until the header has been laid out once, the photo is stored at the size it would take in
+     * a header of {@code estimatedViewWidth} x {@code estimatedViewHeight}. The estimate is not
+     * recorded: the header loads that variant through the pinned-variant fallback until the next
+     * pin stores the photo at its measured size.
+     *
+     * @return the disk cache key of the pinned photo, or {@code null} if it could not be stored
+     */
+    public String pinPhoto(String url, float aspectRatio, int estimatedViewWidth,
+            int estimatedViewHeight) {
+        int viewWidth = mPhotoViewWidth;
+        int viewHeight = mPhotoViewHeight;
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            viewWidth = estimatedViewWidth;
+            viewHeight = estimatedViewHeight;
+        }
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return null;
+        }
+
+        final int width = coverWidth(viewWidth, viewHeight, aspectRatio);
+        final int height = coverHeight(viewWidth, viewHeight, aspectRatio);
+        final int quality = defaultQuality(KIND_PHOTO);
+        StoreRequest request = new StoreRequest(true, new AtomicLong(Long.MAX_VALUE), Long.MAX_VALUE);
+        store(url, KIND_PHOTO, width, height, quality, request);
+        return request.await() ? diskKey(url, width, height, quality) : null;
+    }
+
+    /**
+     * Takes a reference to a delivered bitmap for as long as it is displayed, so the
+     * {@link BitmapPool} cannot hand it to another decode. Balance with {@link #release}.
+     */
+    public void retain(Bitmap bitmap) {
+        mMemoryCache.retain(bitmap);
+    }
+
+    public void release(Bitmap bitmap) {
+        mMemoryCache.release(bitmap);
+    }
+
+    /**
+     * Debug builds: logs queue depths and timings of the fetch and decode stages, and the memory
+     * pools' occupancy including what compact decodes saved.
+     */
+    public void logStats() {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, mFetchStats + " queued=" + mIoExecutor.getQueue().size() + ", "
+                    + mDecodeStats + " queued=" + mDecodeExecutor.getQueue().size());
+            Log.d(TAG, mMemoryCache.toString());
+        }
+    }
+
+    /**
+     * Debug builds: replays the recorded lookups against LRU and W-TinyLFU pools of the current
+     * budgets in the background and logs the hit ratios of both.
+     */
+    public void logCacheSimulation() {
+        if (mTrace == null) {
+            return;
+        }
+
+        final ImageAccessTrace.Snapshot trace = mTrace.snapshot();
+        final int thumbnailBytes = mMemoryCache.getThumbnails().maxSize();
+        final int photoBytes = mMemoryCache.getPhotos().maxSize();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Cache simulation, thumbnails: "
+                        + CacheSimulator.replay(trace, KIND_THUMBNAIL, thumbnailBytes,
+                                BitmapMemoryCache.THUMBNAIL_EXPECTED_ENTRIES)
+                        + "; photos: "
+                        + CacheSimulator.replay(trace, KIND_PHOTO, photoBytes,
+                                BitmapMemoryCache.PHOTO_EXPECTED_ENTRIES));
+            }
+        });
+    }
+
+    public BitmapMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /** Any thread; the disk cache is thread-safe. */
+    public ImageDiskCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    @Override
+    public String toString() {
+        return "ImagePipeline[" + mMemoryCache + ", " + mDiskCache + ", " + mFetcher
+                + ", " + mUrlTemplate
+                + ", inFlight=" + mInFlight.size() + ", joined=" + mJoinedCount
+                + ", fetchQueued=" + mIoExecutor.getQueue().size()
+                + ", decodeQueued=" + mDecodeExecutor.getQueue().size() + "]";
+    }
+
+    private static ThreadPoolExecutor newPriorityExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** Queues a job that stores {@code url} on disk at the given size, as {@code request} asks. */
+    private void store(String url, int kind, int width, int height, int quality,
+            StoreRequest request) {
+        Job job = new Job(memoryKey(url, width, height, quality), url, kind, width, height,
+                quality, PRIORITY_BACKGROUND, mNextSequence.getAndIncrement(), request);
+        job.enqueue(Job.STAGE_FETCH);
+    }
+
+    private ThreadPoolExecutor executorFor(int stage) {
+        return stage == Job.STAGE_FETCH ? mIoExecutor : mDecodeExecutor;
+    }
+
+    private StageStats statsFor(int stage) {
+        return stage == Job.STAGE_FETCH ? mFetchStats : mDecodeStats;
+    }
+
+    private BitmapMemoryCache.Pool poolFor(int kind) {
+        return kind == KIND_THUMBNAIL ? mMemoryCache.getThumbnails() : mMemoryCache.getPhotos();
+    }
+
+    private static String memoryKey(String url, int width, int height, int quality) {
+        return width + "x" + height + (quality == QUALITY_COMPACT ? "/565#" : "#") + url;
+    }
+
+    /** Compact variants are stored with their 16-bit colors, so they get keys of their own. */
+    private static String diskKey(String url, int width, int height, int quality) {
+        final String key = ImageDiskCache.keyFor(url, width, height);
+        return quality == QUALITY_COMPACT ? key + "_565" : key;
+    }
+
+    /** Decode config of opaque images at {@code quality}. */
+    private static Bitmap.Config configFor(int quality) {
+        return quality == QUALITY_COMPACT ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Asks a job to store its variant on disk, pinned or in the LRU segment, instead of
+     * delivering it. Variants already on disk are not fetched again, and no download starts once
+     * the budget is spent or the deadline has passed.
+     */
+    private static class StoreRequest {
+        final boolean mPin;
+        final AtomicLong mDownloadBudget;
+        final long mDeadline;
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile boolean mStored;
+
+        StoreRequest(boolean pin, AtomicLong downloadBudget, long deadline) {
+            mPin = pin;
+            mDownloadBudget = downloadBudget;
+            mDeadline = deadline;
+        }
+
+        boolean mayDownload() {
+            return mDownloadBudget.get() > 0 && SystemClock.elapsedRealtime() < mDeadline;
+        }
+
+        void finish(boolean stored) {
+            mStored = stored;
+            mDone.countDown();
+        }
+
+        /** Blocks until the job is done; returns whether it stored or pinned the variant. */
+        boolean await() {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return mStored;
+        }
+    }
+
+    private class Job implements Runnable, Comparable<Job> {
+        static final int STAGE_FETCH = 0;
+        static final int STAGE_DECODE = 1;
+
+        final String mKey;
+        final String mUrl;
+        final int mKind;
+        final int mWidth;
+        final int mHeight;
+        final int mQuality;
+        final long mSequence;
+        /** Set for jobs that only store their variant on disk; they have no tickets. */
+        final StoreRequest mStore;
+        /** Main-thread only. */
+        final ArrayList<Ticket> mTickets = new ArrayList<Ticket>(2);
+        /**
+         * Only changed while the job is out of the queue, so the heap order stays valid. Changes,
+         * and moves between queues, happen under the job's lock.
+         */
+        volatile int mPriority;
+        volatile boolean mAbandoned;
+        volatile int mStage;
+        /** When the job last entered a queue, for {@link StageStats}. */
+        volatile long mQueuedAt;
+        /** Encoded bytes handed from the fetch stage to the decode stage. */
+        volatile byte[] mData;
+        volatile boolean mFromDisk;
+        /** Set after stored bytes failed to decode, so the retry goes to the network. */
+        volatile boolean mSkipDisk;
+        /** The resized variant {@link #mData} came from, or {@code null} for the feed URL. */
+        volatile String mVariantUrl;
+        /** Set after a variant failed to decode, so the retry fetches the feed URL. */
+        volatile boolean mSkipVariant;
+
+        Job(String key, String url, int kind, int width, int height, int quality, int priority,
+                long sequence, StoreRequest store) {
+            mKey = key;
+            mUrl = url;
+            mKind = kind;
+            mWidth = width;
+            mHeight = height;
+            mQuality = quality;
+            mPriority = priority;
+            mSequence = sequence;
+            mStore = store;
+        }
+
+        synchronized void enqueue(int stage) {
+            mStage = stage;
+            mQueuedAt = SystemClock.elapsedRealtime();
+            ThreadPoolExecutor executor = executorFor(stage);
+            executor.execute(this);
+            statsFor(stage).recordQueued(executor.getQueue().size());
+        }
+
+        void detach(Ticket ticket) {
+            mTickets.remove(ticket);
+            if (mTickets.isEmpty() && !mAbandoned) {
+                mAbandoned = true;
+                synchronized (this) {
+                    executorFor(mStage).remove(this);
+                }
+                if (mInFlight.get(mKey) == this) {
+                    mInFlight.remove(mKey);
+                }
+            } else {
+                reprioritize();
+            }
+        }
+
+        /** Re-queues the job under the most urgent priority among its tickets, if that changed. */
+        void reprioritize() {
+            int priority = PRIORITY_BACKGROUND;
+            for (int i = 0, count = mTickets.size(); i < count; i++) {
+                priority = Math.min(priority, mTickets.get(i).mPriority);
+            }
+            if (priority == mPriority || mAbandoned) {
+                return;
+            }
+
+            // A job a worker has already taken keeps the new priority for its next stage.
+            synchronized (this) {
+                ThreadPoolExecutor executor = executorFor(mStage);
+                if (executor.remove(this)) {
+                    mPriority = priority;
+                    executor.execute(this);
+                } else {
+                    mPriority = priority;
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            if (mAbandoned) {
+                return;
+            }
+
+            final long start = SystemClock.elapsedRealtime();
+            final int stage = mStage;
+            if (stage == STAGE_FETCH) {
+                fetch();
+            } else {
+                decode();
+            }
+            statsFor(stage).recordRun(start - mQueuedAt, SystemClock.elapsedRealtime() - start);
+        }
+
+        /** I/O stage: reads the variant from disk, or downloads the source. */
+        private void fetch() {
+            final String diskKey = diskKey(mUrl, mWidth, mHeight, mQuality);
+            byte[] data = null;
+            if (mStore != null) {
+                if (mStore.mPin ? mDiskCache.pin(diskKey) >= 0 : mDiskCache.contains(diskKey)) {
+                    // Pinned in place; an entry that is only being warmed up is left as it is.
+                    mStore.finish(mStore.mPin);
+                    return;
+                }
+                if (!mStore.mayDownload()) {
+                    mStore.finish(false);
+                    return;
+                }
+            } else if (!mSkipDisk) {
+                data = mDiskCache.get(diskKey);
+                if (data == null) {
+                    // Saved for offline reading at another size, possibly before the header was
+                    // ever measured; scaling it beats needing the network.
+                    final String pinnedKey = mDiskCache.findPinned(mUrl);
+                    if (pinnedKey != null) {
+                        data = mDiskCache.get(pinnedKey);
+                    }
+                }
+            }
+            mFromDisk = data != null;
+            mVariantUrl = null;
+            String failedVariantUrl = null;
+            if (data == null && !mSkipVariant) {
+                String variantUrl = mUrlTemplate.variantUrl(mUrl, mWidth);
+                if (variantUrl != null) {
+                    try {
+                        data = mFetcher.fetch(variantUrl);
+                        mVariantUrl = variantUrl;
+                    } catch (IOException e) {
+                        Log.d(TAG, "Falling back to " + mUrl + " after " + variantUrl + " failed", e);
+                        failedVariantUrl = variantUrl;
+                    }
+                }
+            }
+            if (data == null) {
+                try {
+                    data = mFetcher.fetch(mUrl);
+                    if (failedVariantUrl != null) {
+                        // Only held against the template when the host itself is reachable.
+                        mUrlTemplate.reportFailure(failedVariantUrl);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to fetch " + mUrl, e);
+                    post(null);
+                    return;
+                }
+            }
+
+            if (mStore != null) {
+                mStore.mDownloadBudget.addAndGet(-data.length);
+            }
+            mData = data;
+            if (!mAbandoned) {
+                enqueue(STAGE_DECODE);
+            }
+        }
+
+        /** CPU stage: decodes the fetched bytes and stores a fresh download on disk. */
+        private void decode() {
+            final byte[] data = mData;
+            mData = null;
+            Bitmap bitmap = ImageDecoder.decode(data, mWidth, mHeight, configFor(mQuality),
+                    mMemoryCache.getReusePool());
+            if (bitmap == null && mFromDisk) {
+                // A damaged entry; fall back to the network.
+                mSkipDisk = true;
+                enqueue(STAGE_FETCH);
+                return;
+            }
+            if (mVariantUrl != null) {
+                if (bitmap == null) {
+                    // Not an image the decoder understands; try the feed URL instead.
+                    mFetcher.reportUnusable(mVariantUrl);
+                    mUrlTemplate.reportFailure(mVariantUrl);
+                    mSkipDisk = true;
+                    mSkipVariant = true;
+                    enqueue(STAGE_FETCH);
+                    return;
+                }
+                mUrlTemplate.reportSuccess();
+            }
+
+            if (bitmap != null && !mFromDisk) {
+                final String diskKey = diskKey(mUrl, mWidth, mHeight, mQuality);
+                final byte[] encoded = ImageDiskCache.encode(bitmap);
+                if (mStore != null && mStore.mPin) {
+                    mDiskCache.putPinned(diskKey, encoded);
+                } else {
+                    mDiskCache.put(diskKey, encoded);
+                }
+            } else if (bitmap == null) {
+                mFetcher.reportUnusable(mUrl);
+            }
+            post(bitmap);
+        }
+
+        /** Hands the result to the targets on the main thread, or completes a store request. */
+        private void post(final Bitmap result) {
+            if (mStore != null) {
+                // Never delivered, so nothing else can hold a reference to it.
+                if (result != null && !mMemoryCache.getReusePool().put(result)) {
+                    result.recycle();
+                }
+                mStore.finish(result != null);
+                return;
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(result);
+                }
+            });
+        }
+
+        private void deliver(Bitmap bitmap) {
+            if (mInFlight.get(mKey) == this) {
+                mInFlight.remove(mKey);
+            }
+
+            // Targets may start or cancel loads from their callbacks, so work on a copy.
+            Ticket[] tickets = mTickets.toArray(new Ticket[mTickets.size()]);
+            mTickets.clear();
+            for (Ticket ticket : tickets) {
+                if (ticket.mFinished) {
+                    continue;
+                }
+                ticket.mFinished = true;
+                if (bitmap != null) {
+                    ticket.mTarget.onImageLoaded(mUrl, bitmap, false);
+                } else {
+                    ticket.mTarget.onImageFailed(mUrl);
+                }
+            }
+
+            // Cached only after targets have retained it: caching can evict the new entry
+            // straight away, and an unreferenced eviction goes to the reuse pool.
+            if (bitmap != null) {
+                poolFor(mKind).cache(mKey, bitmap);
+                if (mTrace != null) {
+                    mTrace.recordSize(mKey, BitmapMemoryCache.byteCountOf(bitmap));
+                }
+                if (mKind == KIND_THUMBNAIL) {
+                    mThumbnailKeys.put(mUrl, mKey);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.xyzreader.ui;
+
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Rewrites a feed image URL into a request for a server-resized variant about as wide as it will
+ * be shown, from a template such as {@code "{url}?w={width}"}. {@code {url}} stands for the feed
+ * URL, {@code {url_encoded}} for the same URL-encoded, and {@code {width}} for the width in
+ * pixels. Widths are rounded up to a density-dependent step, so views of nearly the same size
+ * share one variant on the server and in {@link ImageFetcher}. A {@code ?} right after
+ * {@code {url}} becomes {@code &} when the feed URL already has a query string.
+ * <p>
+ * Callers fall back to the feed URL whenever a variant fails. Once variants have failed several
+ * times in a row while their feed URLs worked, the template is taken to be unsupported by the
+ * host and no more are built.
+ * Thread-safe.
+ */
+final class ImageUrlTemplate {
+    private static final String TAG = "ImageUrlTemplate";
+
+    private static final String URL = "{url}";
+    private static final String URL_ENCODED = "{url_encoded}";
+    private static final String WIDTH = "{width}";
+    /** Variant widths are multiples of this many dp. */
+    private static final int WIDTH_STEP_DP = 64;
+    /** Consecutive variant failures after which the template is abandoned. */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    private final String mTemplate;
+    private final int mWidthStep;
+    private int mConsecutiveFailures;
+    private int mVariantCount;
+    private int mFallbackCount;
+
+    /**
+     * @param template the template, or {@code null} if the host serves only the feed URLs
+     * @param density the display density, for the width step
+     */
+    ImageUrlTemplate(String template, float density) {
+        mTemplate = template != null && template.contains(WIDTH) ? template : null;
+        mWidthStep = Math.max(1, Math.round(WIDTH_STEP_DP * density));
+    }
+
+    /**
+     * Returns the URL of a variant of {@code url} at least {@code width} pixels wide, or
+     * {@code null} to fetch {@code url} itself.
+     */
+    synchronized String variantUrl(String url, int width) {
+        if (mTemplate == null || mConsecutiveFailures >= MAX_CONSECUTIVE_FAILURES || width <= 0) {
+            return null;
+        }
+
+        final int stepped = (width + mWidthStep - 1) / mWidthStep * mWidthStep;
+        String variant = url.indexOf('?') >= 0
+                ? mTemplate.replace(URL + "?", URL + "&")
+                : mTemplate;
+        variant = variant.replace(WIDTH, Integer.toString(stepped));
+        if (variant.contains(URL_ENCODED)) {
+            try {
+                variant = variant.replace(URL_ENCODED, URLEncoder.encode(url, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                return null;
+            }
+        }
+        mVariantCount++;
+        return variant.replace(URL, url);
+    }
+
+    synchronized void reportSuccess() {
+        mConsecutiveFailures = 0;
+    }
+
+    /** Records that a variant could not be fetched or decoded but its feed URL could. */
+    synchronized void reportFailure(String variantUrl) {
+        mFallbackCount++;
+        if (++mConsecutiveFailures == MAX_CONSECUTIVE_FAILURES) {
+            Log.w(TAG, "Host does not seem to support " + mTemplate + ", e.g. " + variantUrl
+                    + "; using feed URLs");
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageUrlTemplate[" + (mTemplate == null ? "none" : mTemplate)
+                + ", variants=" + mVariantCount + ", fallbacks=" + mFallbackCount
+                + (mConsecutiveFailures >= MAX_CONSECUTIVE_FAILURES ? ", abandoned" : "") + "]";
+    }
+}
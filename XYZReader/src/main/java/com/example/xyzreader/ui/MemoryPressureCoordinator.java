@@ -0,0 +1,104 @@
+package com.example.xyzreader.ui;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Single receiver of the system's trim-memory callbacks. Caches register a {@link Trimmable} and
+ * are told to shrink to a share of their current size that falls with the trim level: a little
+ * while the app is running and memory is getting tight, half once its UI is hidden, and
+ * everything as the process nears the front of the kill list.
+ * <p>
+ * Caches may register from any thread; callbacks arrive on the main thread.
+ */
+public class MemoryPressureCoordinator implements ComponentCallbacks2 {
+    private static final String TAG = "MemoryPressure";
+
+    public interface Trimmable {
+        /**
+         * Shrinks to about {@code keepFraction} (0 to 1) of the current size and returns the
+         * number of bytes released, estimated where the exact figure is not known.
+         */
+        long trimToFraction(float keepFraction);
+    }
+
+    private static MemoryPressureCoordinator sInstance;
+
+    public static synchronized MemoryPressureCoordinator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MemoryPressureCoordinator();
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+
+        return sInstance;
+    }
+
+    private final ArrayList<Trimmable> mTrimmables = new ArrayList<Trimmable>();
+
+    private MemoryPressureCoordinator() {
+    }
+
+    public synchronized void register(Trimmable trimmable) {
+        if (!mTrimmables.contains(trimmable)) {
+            mTrimmables.add(trimmable);
+        }
+    }
+
+    public synchronized void unregister(Trimmable trimmable) {
+        mTrimmables.remove(trimmable);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        final float keepFraction = keepFractionFor(level);
+        if (keepFraction >= 1f) {
+            return;
+        }
+
+        Trimmable[] trimmables;
+        synchronized (this) {
+            trimmables = mTrimmables.toArray(new Trimmable[mTrimmables.size()]);
+        }
+
+        long total = 0;
+        StringBuilder detail = new StringBuilder();
+        for (Trimmable trimmable : trimmables) {
+            long released = trimmable.trimToFraction(keepFraction);
+            total += released;
+            detail.append(' ').append(trimmable.getClass().getSimpleName()).append('=').append(released);
+        }
+        Log.i(TAG, "Trim level " + level + ", kept " + keepFraction + ", released " + total
+                + " bytes:" + detail);
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    static float keepFractionFor(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 0f;
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            return 0.25f;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // UI_HIDDEN and BACKGROUND.
+            return 0.5f;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        }
+        return 1f;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.xyzreader.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.support.v7.graphics.Palette;
+
+import com.example.xyzreader.data.ArticleDao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Vibrant swatch colors by image URL. Palette extraction runs on a background executor, and
+ * results are kept in memory and persisted through {@link ArticleDao}, so each image is processed
+ * once and later binds, including after a restart, get their color immediately. Colors dropped
+ * from memory are read back from the database rather than extracted again.
+ * <p>
+ * Apart from {@link #getInstance}, all methods must be called on the main thread; listeners are
+ * invoked on it.
+ */
+public class PaletteCache implements MemoryPressureCoordinator.Trimmable {
+    /** Stored for images that have no vibrant swatch, so they are not processed again. */
+    private static final int NO_SWATCH = 0;
+    private static final int MAX_ENTRIES = 512;
+    /** Rough footprint of one entry: the URL string, the boxed color and the map entry. */
+    private static final int ENTRY_BYTES_ESTIMATE = 200;
+
+    public interface Listener {
+        void onSwatchColor(String imageUrl, int color);
+    }
+
+    private static PaletteCache sInstance;
+
+    /** Any thread. */
+    public static synchronized PaletteCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PaletteCache(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private final ArticleDao mDao;
+    private final BitmapMemoryCache mBitmaps;
+    private final LruCache<String, Integer> mColors = new LruCache<String, Integer>(MAX_ENTRIES);
+    private final HashMap<String, ArrayList<Listener>> mPending =
+            new HashMap<String, ArrayList<Listener>>();
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private PaletteCache(Context applicationContext) {
+        mDao = ArticleDao.getInstance(applicationContext);
+        mBitmaps = ImagePipeline.getInstance(applicationContext).getMemoryCache();
+        MemoryPressureCoordinator.getInstance(applicationContext).register(this);
+
+        // Runs before any extraction queued on the same executor, so persisted colors are never
+        // recomputed even if a bind races the warm-up.
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, Integer> entry : mDao.getSwatchColors().entrySet()) {
+                    mColors.put(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the known vibrant color for {@code imageUrl}, or {@code defaultColor} if it has not
+     * been computed yet or the image has no vibrant swatch.
+     */
+    public int getColor(String imageUrl, int defaultColor) {
+        Integer color = imageUrl != null ? mColors.get(imageUrl) : null;
+        return color != null && color != NO_SWATCH ? color : defaultColor;
+    }
+
+    /**
+     * Extracts the vibrant color of {@code bitmap} in the background, unless it is already known
+     * for {@code imageUrl}. {@code listener} is called only if a vibrant color was computed or
+     * read back from the database; callers apply known colors with {@link #getColor} at bind
+     * time.
+     */
+    public void extract(final String imageUrl, final Bitmap bitmap, Listener listener) {
+        if (imageUrl == null || bitmap == null || mColors.get(imageUrl) != null) {
+            return;
+        }
+
+        ArrayList<Listener> listeners = mPending.get(imageUrl);
+        if (listeners != null) {
+            if (!listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+            return;
+        }
+
+        listeners = new ArrayList<Listener>(2);
+        listeners.add(listener);
+        mPending.put(imageUrl, listeners);
+        // Keep the pixels from being reused for another decode while they are being read.
+        mBitmaps.retain(bitmap);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Integer known = mColors.get(imageUrl);
+                if (known == null) {
+                    // Evicted from memory, or never loaded past MAX_ENTRIES; still persisted.
+                    known = mDao.getSwatchColor(imageUrl);
+                }
+                final int color;
+                if (known != null) {
+                    color = known;
+                    mColors.put(imageUrl, color);
+                } else {
+                    Palette.Swatch vibrant = Palette.generate(bitmap).getVibrantSwatch();
+                    color = vibrant != null ? vibrant.getRgb() : NO_SWATCH;
+                    mColors.put(imageUrl, color);
+                    mDao.putSwatchColor(imageUrl, color);
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBitmaps.release(bitmap);
+                        deliver(imageUrl, color);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Forgets the least recently used colors; extraction reads them back from the database. */
+    @Override
+    public long trimToFraction(float keepFraction) {
+        final int before = mColors.size();
+        mColors.trimToSize((int) (before * keepFraction));
+        return (long) (before - mColors.size()) * ENTRY_BYTES_ESTIMATE;
+    }
+
+    private void deliver(String imageUrl, int color) {
+        ArrayList<Listener> listeners = mPending.remove(imageUrl);
+        if (listeners == null || color == NO_SWATCH) {
+            return;
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onSwatchColor(imageUrl, color);
+        }
+    }
+}
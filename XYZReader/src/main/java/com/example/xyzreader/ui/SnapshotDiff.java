@@ -0,0 +1,206 @@
+package com.example.xyzreader.ui;
+
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+
+import com.example.xyzreader.data.ArticleSnapshot;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The adapter updates that turn one {@link ArticleSnapshot} into another, matching rows by their
+ * stable {@code _id}. {@link #compute} is meant to run off the main thread; the result is
+ * replayed on an adapter with {@link #dispatchUpdatesTo}.
+ * <p>
+ * Rows that keep their relative order (the longest increasing run of new positions) stay put,
+ * so only the rows that really changed order are reported as moves.
+ */
+class SnapshotDiff {
+    private static final int OP_REMOVE = 0;
+    private static final int OP_MOVE = 1;
+    private static final int OP_INSERT = 2;
+    private static final int OP_CHANGE = 3;
+
+    /** Flattened (op, first, second) triples, in dispatch order. */
+    private int[] mOps = new int[24];
+    private int mOpCount;
+
+    private SnapshotDiff() {
+    }
+
+    static SnapshotDiff compute(ArticleSnapshot oldSnapshot, ArticleSnapshot newSnapshot) {
+        final int oldSize = oldSnapshot.size();
+        final int newSize = newSnapshot.size();
+        SnapshotDiff diff = new SnapshotDiff();
+
+        HashMap<Long, Integer> newPositions = new HashMap<Long, Integer>(newSize * 2);
+        for (int i = 0; i < newSize; i++) {
+            newPositions.put(newSnapshot.getId(i), i);
+        }
+
+        // Removals, back to front so earlier positions stay valid. What is left in
+        // currentIds are the retained rows in their old order.
+        long[] currentIds = new long[Math.max(oldSize, newSize)];
+        int[] oldPositionOf = new int[newSize];
+        Arrays.fill(oldPositionOf, -1);
+        int count = 0;
+        for (int i = 0; i < oldSize; i++) {
+            Integer newPosition = newPositions.get(oldSnapshot.getId(i));
+            if (newPosition != null) {
+                oldPositionOf[newPosition] = i;
+                currentIds[count++] = oldSnapshot.getId(i);
+            }
+        }
+        for (int i = oldSize - 1; i >= 0; i--) {
+            if (!newPositions.containsKey(oldSnapshot.getId(i))) {
+                int start = i;
+                while (start > 0 && !newPositions.containsKey(oldSnapshot.getId(start - 1))) {
+                    start--;
+                }
+                diff.add(OP_REMOVE, start, i - start + 1);
+                i = start;
+            }
+        }
+
+        // Rows on the longest increasing subsequence of new positions keep their place.
+        boolean[] anchored = new boolean[newSize];
+        int[] retainedNewPositions = new int[count];
+        for (int k = 0; k < count; k++) {
+            retainedNewPositions[k] = newPositions.get(currentIds[k]);
+        }
+        markLongestIncreasingRun(retainedNewPositions, anchored);
+
+        // Move every other retained row, in new order, to just after its nearest retained
+        // predecessor. The retained rows then appear in exactly their new relative order.
+        int predecessor = -1;
+        for (int p = 0; p < newSize; p++) {
+            if (oldPositionOf[p] < 0) {
+                continue;
+            }
+            if (!anchored[p]) {
+                long id = newSnapshot.getId(p);
+                int from = indexOf(currentIds, count, id);
+                int predecessorIndex = predecessor < 0
+                        ? -1 : indexOf(currentIds, count, newSnapshot.getId(predecessor));
+                int to = from < predecessorIndex ? predecessorIndex : predecessorIndex + 1;
+                if (from != to) {
+                    if (from < to) {
+                        System.arraycopy(currentIds, from + 1, currentIds, from, to - from);
+                    } else {
+                        System.arraycopy(currentIds, to, currentIds, to + 1, from - to);
+                    }
+                    currentIds[to] = id;
+                    diff.add(OP_MOVE, from, to);
+                }
+            }
+            predecessor = p;
+        }
+
+        // Insertions front to back; everything before each run is already in final order.
+        for (int p = 0; p < newSize; p++) {
+            if (oldPositionOf[p] < 0) {
+                int end = p;
+                while (end + 1 < newSize && oldPositionOf[end + 1] < 0) {
+                    end++;
+                }
+                diff.add(OP_INSERT, p, end - p + 1);
+                p = end;
+            }
+        }
+
+        for (int p = 0; p < newSize; p++) {
+            if (oldPositionOf[p] >= 0
+                    && !sameContents(oldSnapshot, oldPositionOf[p], newSnapshot, p)) {
+                diff.add(OP_CHANGE, p, 1);
+            }
+        }
+
+        return diff;
+    }
+
+    boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    void dispatchUpdatesTo(RecyclerView.Adapter<?> adapter) {
+        for (int i = 0; i < mOpCount; i += 3) {
+            final int first = mOps[i + 1];
+            final int second = mOps[i + 2];
+            switch (mOps[i]) {
+                case OP_REMOVE:
+                    adapter.notifyItemRangeRemoved(first, second);
+                    break;
+                case OP_MOVE:
+                    adapter.notifyItemMoved(first, second);
+                    break;
+                case OP_INSERT:
+                    adapter.notifyItemRangeInserted(first, second);
+                    break;
+                case OP_CHANGE:
+                    adapter.notifyItemChanged(first);
+                    break;
+            }
+        }
+    }
+
+    private void add(int op, int first, int second) {
+        if (mOpCount + 3 > mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        mOps[mOpCount++] = op;
+        mOps[mOpCount++] = first;
+        mOps[mOpCount++] = second;
+    }
+
+    private static int indexOf(long[] ids, int count, long id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks, by value, the members of one longest strictly increasing subsequence of
+     * {@code values} (patience sorting, O(n log n)).
+     */
+    private static void markLongestIncreasingRun(int[] values, boolean[] marked) {
+        final int n = values.length;
+        if (n == 0) {
+            return;
+        }
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+        for (int i = tails[length - 1]; i >= 0; i = previous[i]) {
+            marked[values[i]] = true;
+        }
+    }
+
+    private static boolean sameContents(ArticleSnapshot a, int i, ArticleSnapshot b, int j) {
+        return a.getPublishedDate(i) == b.getPublishedDate(j)
+                && a.getAspectRatio(i) == b.getAspectRatio(j)
+                && TextUtils.equals(a.getTitle(i), b.getTitle(j))
+                && TextUtils.equals(a.getAuthor(i), b.getAuthor(j))
+                && TextUtils.equals(a.getThumbUrl(i), b.getThumbUrl(j));
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.xyzreader.ui;
+
+import java.util.Locale;
+
+/**
+ * Timings of one stage of {@link ImagePipeline}: how long jobs waited in the stage's queue, how
+ * long they then ran, and the deepest the queue has been. Thread-safe.
+ */
+final class StageStats {
+    private final String mName;
+    private int mRuns;
+    private long mWaitMillis;
+    private long mRunMillis;
+    private long mMaxRunMillis;
+    private int mPeakQueueDepth;
+
+    StageStats(String name) {
+        mName = name;
+    }
+
+    synchronized void recordQueued(int queueDepth) {
+        mPeakQueueDepth = Math.max(mPeakQueueDepth, queueDepth);
+    }
+
+    synchronized void recordRun(long waitMillis, long runMillis) {
+        mRuns++;
+        mWaitMillis += waitMillis;
+        mRunMillis += runMillis;
+        mMaxRunMillis = Math.max(mMaxRunMillis, runMillis);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "%s[runs=%d, avgWait=%.1fms, avgRun=%.1fms, maxRun=%dms, peakQueue=%d]",
+                mName, mRuns, mRuns == 0 ? 0f : (float) mWaitMillis / mRuns,
+                mRuns == 0 ? 0f : (float) mRunMillis / mRuns, mMaxRunMillis, mPeakQueueDepth);
+    }
+}
@@ -5,7 +5,6 @@ import android.app.FragmentManager;
 import android.app.LoaderManager;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Build;
 import android.os.Bundle;
@@ -18,16 +17,16 @@ import android.util.TypedValue;
 import android.view.View;
 
 import com.example.xyzreader.R;
-import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.ArticleDaoLoader;
 import com.example.xyzreader.data.ItemsContract;
 
 /**
  * An activity representing a single Article detail screen, letting you swipe between articles.
  */
 public class StoryDetailActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<Cursor> {
+        implements LoaderManager.LoaderCallbacks<long[]> {
 
-    private Cursor cursor;
+    private long[] itemIds;
     private long startId;
 
     private ViewPager pager;
@@ -53,15 +52,6 @@ public class StoryDetailActivity extends AppCompatActivity
                 .applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1, getResources().getDisplayMetrics()));
         pager.setPageMarginDrawable(new ColorDrawable(0x22000000));
 
-        pager.setOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
-            @Override
-            public void onPageSelected(int position) {
-                if (cursor != null) {
-                    cursor.moveToPosition(position);
-                }
-            }
-        });
-
         shareFab = (FloatingActionButton) findViewById(R.id.share_fab);
         shareFab.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -81,34 +71,30 @@ public class StoryDetailActivity extends AppCompatActivity
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newAllArticlesInstance(this);
+    public Loader<long[]> onCreateLoader(int i, Bundle bundle) {
+        return ArticleDaoLoader.newArticleIdsInstance(this);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor cursor) {
-        this.cursor = cursor;
+    public void onLoadFinished(Loader<long[]> idsLoader, long[] itemIds) {
+        this.itemIds = itemIds;
         pagerAdapter.notifyDataSetChanged();
 
         // Select the start ID
         if (startId > 0) {
-            this.cursor.moveToFirst();
-            // TODO: optimize
-            while (!this.cursor.isAfterLast()) {
-                if (this.cursor.getLong(ArticleLoader.Query._ID) == startId) {
-                    final int position = this.cursor.getPosition();
+            for (int position = 0; position < itemIds.length; position++) {
+                if (itemIds[position] == startId) {
                     pager.setCurrentItem(position, false);
                     break;
                 }
-                this.cursor.moveToNext();
             }
             startId = 0;
         }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> cursorLoader) {
-        cursor = null;
+    public void onLoaderReset(Loader<long[]> idsLoader) {
+        itemIds = null;
         pagerAdapter.notifyDataSetChanged();
     }
 
@@ -119,13 +105,12 @@ public class StoryDetailActivity extends AppCompatActivity
 
         @Override
         public Fragment getItem(int position) {
-            cursor.moveToPosition(position);
-            return StoryDetailFragment.newInstance(cursor.getLong(ArticleLoader.Query._ID));
+            return StoryDetailFragment.newInstance(itemIds[position]);
         }
 
         @Override
         public int getCount() {
-            return (cursor != null) ? cursor.getCount() : 0;
+            return (itemIds != null) ? itemIds.length : 0;
         }
     }
 }
@@ -3,16 +3,18 @@ package com.example.xyzreader.ui;
 import android.app.Fragment;
 import android.app.LoaderManager;
 import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
 import android.os.Bundle;
-import android.support.v7.graphics.Palette;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.text.Html;
-import android.text.format.DateUtils;
 import android.text.method.LinkMovementMethod;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -21,10 +23,12 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.ImageLoader;
 import com.example.xyzreader.R;
-import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.Article;
+import com.example.xyzreader.data.ArticleDaoLoader;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A fragment representing a single Article detail screen. This fragment is
@@ -32,19 +36,77 @@ import com.example.xyzreader.data.ArticleLoader;
  * tablets) or a {@link StoryDetailActivity} on handsets.
  */
 public class StoryDetailFragment extends Fragment implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<Article> {
     private static final String TAG = "StoryDetailFragment";
 
     public static final String ARG_ITEM_ID = "item_id";
 
-    private Cursor cursor;
+    private static final int PHOTO_CROSSFADE_MILLIS = 300;
+
+    private Article article;
     private long itemId;
     private View rootView;
     private int color = 0xFF333333;
     private ColorDrawable statusBarColorDrawable;
     private Toolbar toolbar;
+    private BodyAdapter bodyAdapter;
 
     private ImageView photoView;
+    private String photoUrl;
+    private int photoWidth;
+    private int photoHeight;
+    private ImagePipeline.Ticket photoTicket;
+    /** The bitmap in {@link #photoView}, retained while shown. */
+    private Bitmap shownPhoto;
+    /** The grid's thumbnail, shown scaled up until the photo arrives; retained while shown. */
+    private Bitmap shownThumbnail;
+
+    private final Runnable settlePhoto = new Runnable() {
+        @Override
+        public void run() {
+            // The cross-fade is over; drop the transition and the thumbnail underneath it.
+            photoView.setImageBitmap(shownPhoto);
+            releaseThumbnail();
+        }
+    };
+
+    private final ImagePipeline.Target photoTarget = new ImagePipeline.Target() {
+        @Override
+        public void onImageLoaded(String url, Bitmap bitmap, boolean immediate) {
+            photoTicket = null;
+            showPhoto(bitmap, immediate);
+            PaletteCache.getInstance(getActivity()).extract(url, bitmap, swatchListener);
+        }
+
+        @Override
+        public void onImageFailed(String url) {
+            // Let the next bind try again.
+            photoTicket = null;
+            photoUrl = null;
+        }
+    };
+
+    private final ArticleBodyCache.Listener bodyListener = new ArticleBodyCache.Listener() {
+        @Override
+        public void onBodyParsed(long itemId, String html, List<CharSequence> paragraphs,
+                boolean complete) {
+            // A parse of the body this fragment showed before a sync replaced it may finish
+            // after the new one was bound.
+            if (rootView != null && article != null && article.id == itemId
+                    && html.equals(article.body)) {
+                bodyAdapter.setParagraphs(paragraphs);
+            }
+        }
+    };
+
+    private final PaletteCache.Listener swatchListener = new PaletteCache.Listener() {
+        @Override
+        public void onSwatchColor(String imageUrl, int swatchColor) {
+            if (rootView != null && imageUrl.equals(photoUrl)) {
+                applyColor(swatchColor);
+            }
+        }
+    };
 
     /**
      * Mandatory empty constructor for the fragment manager to instantiate the
@@ -93,6 +155,23 @@ public class StoryDetailFragment extends Fragment implements
         rootView = inflater.inflate(R.layout.fragment_story_detail, container, false);
 
         photoView = (ImageView) rootView.findViewById(R.id.story_photo);
+        photoView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                    int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                loadPhoto();
+            }
+        });
+
+        // Only the paragraphs on screen are laid out, so a long article costs no more to show or
+        // scroll than a short one.
+        RecyclerView bodyView = (RecyclerView) rootView.findViewById(R.id.story_body);
+        bodyView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        // The rest of a body is appended below the first screenful; don't fade it in.
+        bodyView.setItemAnimator(null);
+        bodyAdapter = new BodyAdapter(
+                Typeface.createFromAsset(getResources().getAssets(), "Rosario-Regular.ttf"));
+        bodyView.setAdapter(bodyAdapter);
 
         statusBarColorDrawable = new ColorDrawable(0);
 
@@ -126,81 +205,256 @@ public class StoryDetailFragment extends Fragment implements
         TextView titleView = (TextView) rootView.findViewById(R.id.story_title);
         TextView bylineView = (TextView) rootView.findViewById(R.id.story_byline);
         bylineView.setMovementMethod(new LinkMovementMethod());
-        TextView bodyView = (TextView) rootView.findViewById(R.id.story_body);
-        bodyView.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "Rosario-Regular.ttf"));
 
-        if (cursor != null) {
+        if (article != null) {
             rootView.setAlpha(0);
             rootView.setVisibility(View.VISIBLE);
             rootView.animate().alpha(1);
-            titleView.setText(cursor.getString(ArticleLoader.Query.TITLE));
+            titleView.setText(article.title);
             bylineView.setText(Html.fromHtml(
-                    DateUtils.getRelativeTimeSpanString(
-                            cursor.getLong(ArticleLoader.Query.PUBLISHED_DATE),
-                            System.currentTimeMillis(), DateUtils.HOUR_IN_MILLIS,
-                            DateUtils.FORMAT_ABBREV_ALL).toString()
+                    DateLabelCache.getInstance(getActivity()).getLabel(article.publishedDate)
                             + " by "
-                            + cursor.getString(ArticleLoader.Query.AUTHOR)));
-            bodyView.setText(Html.fromHtml(cursor.getString(ArticleLoader.Query.BODY)));
-            ImageLoaderHelper.getInstance(getActivity()).getImageLoader()
-                    .get(cursor.getString(ArticleLoader.Query.PHOTO_URL), new ImageLoader.ImageListener() {
-                        @Override
-                        public void onResponse(ImageLoader.ImageContainer imageContainer, boolean b) {
-                            Bitmap bitmap = imageContainer.getBitmap();
-                            if (bitmap != null) {
-                                Palette p = Palette.generate(bitmap, 12);
-                                Palette.Swatch vibrant = p.getVibrantSwatch();
-                                if(vibrant!=null) {
-                                    color = vibrant.getRgb();
-                                }
-                                photoView.setImageBitmap(imageContainer.getBitmap());
-                                rootView.findViewById(R.id.metabar)
-                                        .setBackgroundColor(color);
-                                updateStatusBar();
-                            }
-                        }
-
-                        @Override
-                        public void onErrorResponse(VolleyError volleyError) {
-
-                        }
-                    });
+                            + article.author));
+            // Parsing a long body takes long enough to stall a pager swipe, so it is done in
+            // the background unless this page, or its off-screen neighbour, did so before.
+            ArticleBodyCache bodies = ArticleBodyCache.getInstance(getActivity());
+            List<CharSequence> body = bodies.get(article.id, article.body);
+            bodyAdapter.setParagraphs(body != null ? body : Collections.<CharSequence>emptyList());
+            if (body == null) {
+                bodies.parse(article.id, article.body, bodyListener);
+            }
+
+            // The grid has usually colored this article from its thumbnail already.
+            PaletteCache paletteCache = PaletteCache.getInstance(getActivity());
+            applyColor(paletteCache.getColor(article.photoUrl,
+                    paletteCache.getColor(article.thumbUrl, color)));
+            showThumbnail();
+            loadPhoto();
         } else {
             rootView.setVisibility(View.GONE);
             titleView.setText("N/A");
             bylineView.setText("N/A" );
-            bodyView.setText("N/A");
+            bodyAdapter.setParagraphs(Collections.<CharSequence>singletonList("N/A"));
         }
     }
 
+    /**
+     * Starts loading the header photo once the view has been measured, unless it is already shown
+     * or on its way. Pages showing the same photo share one download through the pipeline.
+     * <p>
+     * The view center-crops, so the photo is decoded to the smallest size that still covers it,
+     * worked out from the article's aspect ratio.
+     */
+    private void loadPhoto() {
+        if (article == null || article.photoUrl == null) {
+            return;
+        }
+        final int viewWidth = photoView.getWidth();
+        final int viewHeight = photoView.getHeight();
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return;
+        }
+
+        final int width = ImagePipeline.coverWidth(viewWidth, viewHeight, article.aspectRatio);
+        final int height = ImagePipeline.coverHeight(viewWidth, viewHeight, article.aspectRatio);
+        if (article.photoUrl.equals(photoUrl) && width == photoWidth && height == photoHeight) {
+            return;
+        }
+
+        cancelPhotoLoad();
+        photoUrl = article.photoUrl;
+        photoWidth = width;
+        photoHeight = height;
+        ImagePipeline pipeline = ImagePipeline.getInstance(getActivity());
+        pipeline.setPhotoViewSize(viewWidth, viewHeight);
+        ImagePipeline.Ticket ticket = pipeline.load(photoUrl,
+                ImagePipeline.KIND_PHOTO, width, height, photoPriority(), photoTarget);
+        if (ticket != ImagePipeline.Ticket.DONE) {
+            photoTicket = ticket;
+        }
+    }
+
+    /**
+     * Fills the header with the grid's thumbnail of this article if it is still in memory, so the
+     * page opens with an image rather than a blank header while the photo loads.
+     */
+    private void showThumbnail() {
+        if (shownPhoto != null || shownThumbnail != null) {
+            return;
+        }
+
+        ImagePipeline pipeline = ImagePipeline.getInstance(getActivity());
+        Bitmap thumbnail = pipeline.peekThumbnail(article.thumbUrl);
+        if (thumbnail != null) {
+            pipeline.retain(thumbnail);
+            shownThumbnail = thumbnail;
+            photoView.setImageBitmap(thumbnail);
+        }
+    }
+
+    /** Shows the photo, cross-fading from the thumbnail if one is up and the photo was not instant. */
+    private void showPhoto(Bitmap bitmap, boolean immediate) {
+        ImagePipeline pipeline = ImagePipeline.getInstance(getActivity());
+        pipeline.retain(bitmap);
+        pipeline.release(shownPhoto);
+        shownPhoto = bitmap;
+
+        if (shownThumbnail == null || immediate) {
+            photoView.setImageBitmap(bitmap);
+            releaseThumbnail();
+            return;
+        }
+
+        TransitionDrawable transition = new TransitionDrawable(new Drawable[] {
+                new BitmapDrawable(getResources(), shownThumbnail),
+                new BitmapDrawable(getResources(), bitmap)
+        });
+        transition.setCrossFadeEnabled(true);
+        photoView.setImageDrawable(transition);
+        transition.startTransition(PHOTO_CROSSFADE_MILLIS);
+        photoView.removeCallbacks(settlePhoto);
+        photoView.postDelayed(settlePhoto, PHOTO_CROSSFADE_MILLIS);
+    }
+
+    private void releaseThumbnail() {
+        if (shownThumbnail != null) {
+            photoView.removeCallbacks(settlePhoto);
+            ImagePipeline.getInstance(getActivity()).release(shownThumbnail);
+            shownThumbnail = null;
+        }
+    }
+
+    private void cancelPhotoLoad() {
+        if (photoTicket != null) {
+            photoTicket.cancel();
+            photoTicket = null;
+        }
+        photoUrl = null;
+    }
+
+    /** Pages kept alive beside the current one fetch their photo after the visible page's. */
+    private int photoPriority() {
+        return getUserVisibleHint()
+                ? ImagePipeline.PRIORITY_VISIBLE : ImagePipeline.PRIORITY_PREFETCH;
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newInstanceForItemId(getActivity(), itemId);
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        super.setUserVisibleHint(isVisibleToUser);
+        if (photoTicket != null) {
+            photoTicket.setPriority(photoPriority());
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor cursor) {
+    public void onDestroyView() {
+        // The photo belongs to this view hierarchy; nothing should keep loading it once it's gone.
+        cancelPhotoLoad();
+        photoView.setImageDrawable(null);
+        releaseThumbnail();
+        ImagePipeline.getInstance(getActivity()).release(shownPhoto);
+        shownPhoto = null;
+        rootView = null;
+        photoView = null;
+        super.onDestroyView();
+    }
+
+    private void applyColor(int color) {
+        this.color = color;
+        rootView.findViewById(R.id.metabar).setBackgroundColor(color);
+        updateStatusBar();
+    }
+
+    @Override
+    public Loader<Article> onCreateLoader(int i, Bundle bundle) {
+        return ArticleDaoLoader.newInstanceForItemId(getActivity(), itemId);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Article> articleLoader, Article article) {
         if (!isAdded()) {
-            if (cursor != null) {
-                cursor.close();
-            }
             return;
         }
 
-        this.cursor = cursor;
-        if (this.cursor != null && !this.cursor.moveToFirst()) {
-            Log.e(TAG, "Error reading item detail cursor");
-            this.cursor.close();
-            this.cursor = null;
+        this.article = article;
+        if (this.article == null) {
+            Log.e(TAG, "Error reading item detail " + itemId);
         }
 
         bindViews();
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> cursorLoader) {
-        cursor = null;
+    public void onLoaderReset(Loader<Article> articleLoader) {
+        article = null;
         bindViews();
     }
+
+    /** The article body, one item per paragraph. */
+    private static class BodyAdapter extends RecyclerView.Adapter<ParagraphViewHolder> {
+        private final Typeface typeface;
+        private List<CharSequence> paragraphs = Collections.emptyList();
+
+        BodyAdapter(Typeface typeface) {
+            this.typeface = typeface;
+        }
+
+        /**
+         * Shows {@code newParagraphs}. If they continue the paragraphs already shown, only the
+         * new ones are inserted, leaving the laid out ones and the scroll position alone.
+         */
+        void setParagraphs(List<CharSequence> newParagraphs) {
+            final List<CharSequence> oldParagraphs = paragraphs;
+            if (newParagraphs == oldParagraphs) {
+                return;
+            }
+            paragraphs = newParagraphs;
+            if (startsWith(newParagraphs, oldParagraphs)) {
+                notifyItemRangeInserted(oldParagraphs.size(),
+                        newParagraphs.size() - oldParagraphs.size());
+            } else {
+                notifyDataSetChanged();
+            }
+        }
+
+        private static boolean startsWith(List<CharSequence> list, List<CharSequence> prefix) {
+            if (prefix.isEmpty() || prefix.size() > list.size()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.size(); i++) {
+                if (list.get(i) != prefix.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public ParagraphViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            TextView view = (TextView) LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.list_item_story_paragraph, parent, false);
+            view.setTypeface(typeface);
+            return new ParagraphViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(ParagraphViewHolder holder, int position) {
+            holder.mTextView.setText(paragraphs.get(position));
+        }
+
+        @Override
+        public int getItemCount() {
+            return paragraphs.size();
+        }
+    }
+
+    private static class ParagraphViewHolder extends RecyclerView.ViewHolder {
+        final TextView mTextView;
+
+        ParagraphViewHolder(TextView view) {
+            super(view);
+            mTextView = view;
+        }
+    }
     
 }
@@ -6,23 +6,26 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
-import android.support.v7.graphics.Palette;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
-import android.text.format.DateUtils;
+import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.example.xyzreader.R;
-import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.ArticleDaoLoader;
+import com.example.xyzreader.data.ArticleSnapshot;
 import com.example.xyzreader.data.ItemsContract;
+import com.example.xyzreader.data.OfflinePackService;
 import com.example.xyzreader.data.UpdaterService;
 
 /**
@@ -32,10 +35,13 @@ import com.example.xyzreader.data.UpdaterService;
  * activity presents a grid of items as cards.
  */
 public class StoryListActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<ArticleSnapshot> {
 
     private SwipeRefreshLayout swipeRefreshLayout;
     private RecyclerView recyclerView;
+    private Adapter adapter;
+    private DateLabelCache dateLabels;
+    private ViewportImageScheduler imageScheduler;
     private boolean isRefreshing = false;
 
     @Override
@@ -44,8 +50,41 @@ public class StoryListActivity extends AppCompatActivity implements
         setContentView(R.layout.activity_story_list);
 
         swipeRefreshLayout = (SwipeRefreshLayout) findViewById(R.id.swipe_refresh_layout);
+        dateLabels = DateLabelCache.getInstance(this);
 
+        Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
+        toolbar.inflateMenu(R.menu.main);
+        toolbar.setOnMenuItemClickListener(new Toolbar.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                switch (item.getItemId()) {
+                    case R.id.refresh:
+                        refresh();
+                        return true;
+                    case R.id.save_offline:
+                        startService(new Intent(StoryListActivity.this, OfflinePackService.class)
+                                .setAction(OfflinePackService.ACTION_SAVE));
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+        });
+
+        // The adapter and layout manager live as long as the activity; new data is diffed into
+        // them so view holders, measured layout and scroll position survive reloads.
         recyclerView = (RecyclerView) findViewById(R.id.recycler_view);
+        int columnCount = getResources().getInteger(R.integer.list_column_count);
+        StaggeredGridLayoutManager layoutManager =
+                new StaggeredGridLayoutManager(columnCount, StaggeredGridLayoutManager.VERTICAL);
+        recyclerView.setLayoutManager(layoutManager);
+        adapter = new Adapter();
+        adapter.setHasStableIds(true);
+        recyclerView.setAdapter(adapter);
+        imageScheduler = new ViewportImageScheduler(recyclerView);
+        imageScheduler.attach();
+        recyclerView.addOnScrollListener(new ThumbnailPrefetcher(recyclerView, layoutManager,
+                adapter, ImagePipeline.getInstance(this)));
         getLoaderManager().initLoader(0, null, this);
 
         if (savedInstanceState == null) {
@@ -62,12 +101,17 @@ public class StoryListActivity extends AppCompatActivity implements
         super.onStart();
         registerReceiver(refreshingReceiver,
                 new IntentFilter(UpdaterService.BROADCAST_ACTION_STATE_CHANGE));
+        dateLabels.addListener(dateLabelsListener);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
         unregisterReceiver(refreshingReceiver);
+        dateLabels.removeListener(dateLabelsListener);
+        // No-ops outside debug builds.
+        ImagePipeline.getInstance(this).logStats();
+        ImagePipeline.getInstance(this).logCacheSimulation();
     }
 
     private BroadcastReceiver refreshingReceiver = new BroadcastReceiver() {
@@ -80,109 +124,234 @@ public class StoryListActivity extends AppCompatActivity implements
         }
     };
 
+    private DateLabelCache.Listener dateLabelsListener = new DateLabelCache.Listener() {
+        @Override
+        public void onDateLabelsChanged() {
+            // Only rows on screen need their label swapped; the rest pick it up when bound.
+            for (int i = 0; i < recyclerView.getChildCount(); i++) {
+                ViewHolder holder = (ViewHolder) recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    String label = dateLabels.getLabel(adapter.snapshot.getPublishedDate(position));
+                    if (!TextUtils.equals(label, holder.mDateView.getText())) {
+                        holder.mDateView.setText(label);
+                    }
+                }
+            }
+        }
+    };
+
     private void updateRefreshingUI() {
         swipeRefreshLayout.setRefreshing(isRefreshing);
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newAllArticlesInstance(this);
+    public Loader<ArticleSnapshot> onCreateLoader(int i, Bundle bundle) {
+        return ArticleDaoLoader.newListSnapshotInstance(this);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor cursor) {
-        Adapter adapter = new Adapter(cursor);
-        adapter.setHasStableIds(true);
-        recyclerView.setAdapter(adapter);
-        int columnCount = getResources().getInteger(R.integer.list_column_count);
-        StaggeredGridLayoutManager sglm =
-                new StaggeredGridLayoutManager(columnCount, StaggeredGridLayoutManager.VERTICAL);
-        recyclerView.setLayoutManager(sglm);
+    public void onLoadFinished(Loader<ArticleSnapshot> snapshotLoader, ArticleSnapshot snapshot) {
+        dateLabels.prepare(snapshot);
+        adapter.submitSnapshot(snapshot);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        recyclerView.setAdapter(null);
+    public void onLoaderReset(Loader<ArticleSnapshot> loader) {
+        adapter.submitSnapshot(ArticleSnapshot.EMPTY);
     }
 
-    private class Adapter extends RecyclerView.Adapter<ViewHolder> {
-        private Cursor cursor;
+    private class Adapter extends RecyclerView.Adapter<ViewHolder>
+            implements ThumbnailPrefetcher.Source {
+        private ArticleSnapshot snapshot = ArticleSnapshot.EMPTY;
+        private DiffTask pendingDiff;
+        private final ImagePipeline imagePipeline = ImagePipeline.getInstance(StoryListActivity.this);
+        private final PaletteCache paletteCache = PaletteCache.getInstance(StoryListActivity.this);
+        private final int defaultCardColor = getResources().getColor(R.color.white_shade);
+
+        /**
+         * Replaces the adapter's data. The first load and resets are applied directly; any
+         * other change is diffed against the current snapshot on a background thread and
+         * dispatched as fine-grained item events.
+         */
+        public void submitSnapshot(ArticleSnapshot newSnapshot) {
+            if (pendingDiff != null) {
+                pendingDiff.cancel(false);
+                pendingDiff = null;
+            }
+
+            if (snapshot.size() == 0 || newSnapshot.size() == 0) {
+                snapshot = newSnapshot;
+                notifyDataSetChanged();
+                return;
+            }
 
-        public Adapter(Cursor cursor) {
-            this.cursor = cursor;
+            pendingDiff = new DiffTask(snapshot, newSnapshot);
+            pendingDiff.execute();
+        }
+
+        private class DiffTask extends AsyncTask<Void, Void, SnapshotDiff> {
+            private final ArticleSnapshot oldSnapshot;
+            private final ArticleSnapshot newSnapshot;
+
+            DiffTask(ArticleSnapshot oldSnapshot, ArticleSnapshot newSnapshot) {
+                this.oldSnapshot = oldSnapshot;
+                this.newSnapshot = newSnapshot;
+            }
+
+            @Override
+            protected SnapshotDiff doInBackground(Void... params) {
+                return SnapshotDiff.compute(oldSnapshot, newSnapshot);
+            }
+
+            @Override
+            protected void onPostExecute(SnapshotDiff diff) {
+                if (pendingDiff != this || snapshot != oldSnapshot) {
+                    return;
+                }
+
+                pendingDiff = null;
+                snapshot = newSnapshot;
+                diff.dispatchUpdatesTo(Adapter.this);
+            }
         }
 
         @Override
         public long getItemId(int position) {
-            cursor.moveToPosition(position);
-            return cursor.getLong(ArticleLoader.Query._ID);
+            return snapshot.getId(position);
         }
 
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             View view = getLayoutInflater().inflate(R.layout.list_item_story, parent, false);
-            final ViewHolder vh = new ViewHolder(view);
+            final ViewHolder vh = new ViewHolder(view, paletteCache, defaultCardColor);
             view.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
+                    int position = vh.getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION) {
+                        return;
+                    }
                     startActivity(new Intent(Intent.ACTION_VIEW,
-                            ItemsContract.Items.buildItemUri(getItemId(vh.getAdapterPosition()))));
+                            ItemsContract.Items.buildItemUri(getItemId(position))));
                 }
             });
             return vh;
         }
 
         @Override
-        public void onBindViewHolder(final ViewHolder holder, int position) {
-            cursor.moveToPosition(position);
-            holder.mTitleView.setText(cursor.getString(ArticleLoader.Query.TITLE));
-            holder.mDateView.setText(
-                    DateUtils.getRelativeTimeSpanString(
-                            cursor.getLong(ArticleLoader.Query.PUBLISHED_DATE),
-                            System.currentTimeMillis(), DateUtils.HOUR_IN_MILLIS,
-                            DateUtils.FORMAT_ABBREV_ALL).toString());
-            holder.mAuthorView.setText(
-                            cursor.getString(ArticleLoader.Query.AUTHOR));
-            holder.mThumbnailView.setResponseObserver(new DynamicHeightNetworkImageView.ResponseObserver() {
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            holder.bind(snapshot.getTitle(position),
+                    dateLabels.getLabel(snapshot.getPublishedDate(position)),
+                    snapshot.getAuthor(position),
+                    snapshot.getThumbUrl(position),
+                    snapshot.getAspectRatio(position),
+                    imagePipeline);
+        }
+
+        @Override
+        public String getThumbUrl(int position) {
+            return snapshot.getThumbUrl(position);
+        }
 
-                @Override
-                public void onSuccess(Bitmap bmp) {
-                    if (bmp != null) {
-                        Palette p = Palette.generate(bmp);
-                        Palette.Swatch vibrant = p.getVibrantSwatch();
-                        if(vibrant!=null) {
-                            int mColor = vibrant.getRgb();
-                            holder.mStoryView.setCardBackgroundColor(mColor);
-                        }
-                    }
-                }
-            });
-            holder.mThumbnailView.setImageUrl(
-                    cursor.getString(ArticleLoader.Query.THUMB_URL),
-                    ImageLoaderHelper.getInstance(StoryListActivity.this).getImageLoader());
-            holder.mThumbnailView.setAspectRatio(cursor.getFloat(ArticleLoader.Query.ASPECT_RATIO));
+        @Override
+        public float getAspectRatio(int position) {
+            return snapshot.getAspectRatio(position);
+        }
+
+        @Override
+        public int getThumbnailWidth() {
+            if (recyclerView.getChildCount() == 0) {
+                return 0;
+            }
+            View thumbnail = ((ViewHolder) recyclerView.getChildViewHolder(
+                    recyclerView.getChildAt(0))).mThumbnailView;
+            return thumbnail.getWidth() - thumbnail.getPaddingLeft() - thumbnail.getPaddingRight();
+        }
+
+        @Override
+        public void onViewRecycled(ViewHolder holder) {
+            // The holder may be rebound anywhere; don't keep loading an image it no longer shows.
+            holder.mThumbnailView.clear();
         }
 
         @Override
         public int getItemCount() {
-            return cursor.getCount();
+            return snapshot.size();
         }
     }
 
-    public static class ViewHolder extends RecyclerView.ViewHolder {
+    /**
+     * Owns its image and palette callbacks so binding allocates nothing. Every string it is bound
+     * to comes from an immutable snapshot or a label cache, so an unchanged row is detected by
+     * reference and its views are left alone.
+     */
+    public static class ViewHolder extends RecyclerView.ViewHolder
+            implements DynamicHeightNetworkImageView.ResponseObserver, PaletteCache.Listener,
+            ViewportImageScheduler.ImageHolder {
         public DynamicHeightNetworkImageView mThumbnailView;
         public TextView mTitleView;
         public CardView mStoryView;
         public TextView mDateView;
         public TextView mAuthorView;
 
-        public ViewHolder(View view) {
+        private final PaletteCache mPaletteCache;
+        private final int mDefaultCardColor;
+        private int mCardColor;
+
+        public ViewHolder(View view, PaletteCache paletteCache, int defaultCardColor) {
             super(view);
             mStoryView = (CardView) view.findViewById(R.id.story_view);
             mThumbnailView = (DynamicHeightNetworkImageView) view.findViewById(R.id.thumbnail_view);
             mTitleView = (TextView) view.findViewById(R.id.story_title);
             mDateView = (TextView) view.findViewById(R.id.story_date);
             mAuthorView = (TextView) view.findViewById(R.id.story_author);
+            mPaletteCache = paletteCache;
+            mDefaultCardColor = defaultCardColor;
+            mCardColor = defaultCardColor;
+            mThumbnailView.setResponseObserver(this);
+        }
+
+        void bind(String title, String dateLabel, String author, String thumbUrl,
+                float aspectRatio, ImagePipeline imagePipeline) {
+            setTextIfChanged(mTitleView, title);
+            setTextIfChanged(mDateView, dateLabel);
+            setTextIfChanged(mAuthorView, author);
+            setCardColor(mPaletteCache.getColor(thumbUrl, mDefaultCardColor));
+            // The ratio decides the decoded height, so it must be set before the load starts.
+            mThumbnailView.setAspectRatio(aspectRatio);
+            mThumbnailView.setImageUrl(thumbUrl, imagePipeline);
+        }
+
+        @Override
+        public void onSuccess(Bitmap bm) {
+            mPaletteCache.extract(mThumbnailView.getImageUrl(), bm, this);
+        }
+
+        @Override
+        public void setImagePriority(int priority) {
+            mThumbnailView.setLoadPriority(priority);
+        }
+
+        @Override
+        public void onSwatchColor(String imageUrl, int color) {
+            if (imageUrl.equals(mThumbnailView.getImageUrl())) {
+                setCardColor(color);
+            }
+        }
+
+        private void setCardColor(int color) {
+            if (color != mCardColor) {
+                mCardColor = color;
+                mStoryView.setCardBackgroundColor(color);
+            }
+        }
+
+        private static void setTextIfChanged(TextView view, String text) {
+            // TextView keeps plain Strings as-is, so identity tells us nothing changed.
+            if (view.getText() != text) {
+                view.setText(text);
+            }
         }
     }
 }
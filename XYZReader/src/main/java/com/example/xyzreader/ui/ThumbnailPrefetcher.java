@@ -0,0 +1,203 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Loads and decodes the thumbnails of the rows just past the edge a grid is scrolling towards,
+ * so they are in memory by the time their cells are bound. The lookahead covers every column of
+ * the {@link StaggeredGridLayoutManager} and grows with scroll speed, is capped by a share of the
+ * thumbnail memory budget, and is cancelled once scrolling comes to rest.
+ * <p>
+ * Main thread only.
+ */
+class ThumbnailPrefetcher extends RecyclerView.OnScrollListener implements ImagePipeline.Target {
+    /** How far ahead, in time at the current scroll speed, thumbnails are prefetched. */
+    private static final long LOOKAHEAD_MILLIS = 600;
+    private static final int MIN_ROWS = 1;
+    private static final int MAX_ROWS = 8;
+    /** Share of the thumbnail pool the lookahead may fill. */
+    private static final float BUDGET_SHARE = 0.25f;
+    /** Weight of the newest sample in the smoothed velocity. */
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+
+    /** Row data and the thumbnail width cells are laid out at. */
+    interface Source {
+        int getItemCount();
+
+        String getThumbUrl(int position);
+
+        float getAspectRatio(int position);
+
+        /** Content width of a thumbnail view, or 0 if none has been measured yet. */
+        int getThumbnailWidth();
+    }
+
+    private final RecyclerView mRecyclerView;
+    private final StaggeredGridLayoutManager mLayoutManager;
+    private final Source mSource;
+    private final ImagePipeline mPipeline;
+    private final int[] mSpanPositions;
+    private final HashMap<String, ImagePipeline.Ticket> mTickets =
+            new HashMap<String, ImagePipeline.Ticket>();
+
+    /** Smoothed vertical scroll speed in pixels per millisecond; positive is downwards. */
+    private float mVelocity;
+    private long mLastScrollTime;
+    private int mWindowStart = -1;
+    private int mWindowEnd = -1;
+
+    ThumbnailPrefetcher(RecyclerView recyclerView, StaggeredGridLayoutManager layoutManager,
+            Source source, ImagePipeline pipeline) {
+        mRecyclerView = recyclerView;
+        mLayoutManager = layoutManager;
+        mSource = source;
+        mPipeline = pipeline;
+        mSpanPositions = new int[layoutManager.getSpanCount()];
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        if (mLastScrollTime != 0) {
+            float sample = (float) dy / Math.max(1, now - mLastScrollTime);
+            mVelocity += (sample - mVelocity) * VELOCITY_SMOOTHING;
+        }
+        mLastScrollTime = now;
+        update();
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            cancelAll();
+            mVelocity = 0;
+            mLastScrollTime = 0;
+        }
+    }
+
+    @Override
+    public void onImageLoaded(String url, Bitmap bitmap, boolean immediate) {
+        // Nothing to show; the pipeline has cached it for the cell that binds it.
+        mTickets.remove(url);
+    }
+
+    @Override
+    public void onImageFailed(String url) {
+        mTickets.remove(url);
+    }
+
+    private void update() {
+        final int width = mSource.getThumbnailWidth();
+        final int childCount = mRecyclerView.getChildCount();
+        if (width <= 0 || childCount == 0 || mVelocity == 0) {
+            return;
+        }
+
+        int childHeights = 0;
+        for (int i = 0; i < childCount; i++) {
+            childHeights += mRecyclerView.getChildAt(i).getHeight();
+        }
+        final int rowHeight = Math.max(1, childHeights / childCount);
+        int rows = (int) Math.ceil(Math.abs(mVelocity) * LOOKAHEAD_MILLIS / rowHeight);
+        rows = Math.max(MIN_ROWS, Math.min(MAX_ROWS, rows));
+        final int count = rows * mSpanPositions.length;
+
+        final int itemCount = mSource.getItemCount();
+        final boolean down = mVelocity > 0;
+        int start;
+        int end;
+        if (down) {
+            mLayoutManager.findLastVisibleItemPositions(mSpanPositions);
+            start = max(mSpanPositions) + 1;
+            end = Math.min(itemCount, start + count);
+        } else {
+            mLayoutManager.findFirstVisibleItemPositions(mSpanPositions);
+            end = min(mSpanPositions);
+            start = Math.max(0, end - count);
+        }
+        if (start < 0 || start >= end || (start == mWindowStart && end == mWindowEnd)) {
+            return;
+        }
+        mWindowStart = start;
+        mWindowEnd = end;
+
+        // Nearest rows first, so the budget runs out on the ones needed last. Thumbnails are
+        // JPEGs, so they take what their quality gives opaque images.
+        final long budget =
+                (long) (mPipeline.getMemoryCache().getThumbnails().maxSize() * BUDGET_SHARE);
+        final int quality = ImagePipeline.defaultQuality(ImagePipeline.KIND_THUMBNAIL);
+        final int bytesPerPixel = ImagePipeline.bytesPerPixel(quality);
+        long spent = 0;
+        HashSet<String> wanted = new HashSet<String>();
+        for (int i = 0; i < end - start; i++) {
+            int position = down ? start + i : end - 1 - i;
+            String url = mSource.getThumbUrl(position);
+            if (url == null) {
+                continue;
+            }
+            int height = Math.round(width / mSource.getAspectRatio(position));
+            spent += (long) width * height * bytesPerPixel;
+            if (spent > budget) {
+                break;
+            }
+
+            wanted.add(url);
+            if (!mTickets.containsKey(url)) {
+                ImagePipeline.Ticket ticket = mPipeline.load(url, ImagePipeline.KIND_THUMBNAIL,
+                        width, height, quality, ImagePipeline.PRIORITY_PREFETCH, this);
+                if (ticket != ImagePipeline.Ticket.DONE) {
+                    mTickets.put(url, ticket);
+                }
+            }
+        }
+
+        // Rows that fell out of the lookahead, e.g. after a change of direction.
+        Iterator<Map.Entry<String, ImagePipeline.Ticket>> it = mTickets.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ImagePipeline.Ticket> entry = it.next();
+            if (!wanted.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+    }
+
+    private void cancelAll() {
+        for (ImagePipeline.Ticket ticket : mTickets.values()) {
+            ticket.cancel();
+        }
+        mTickets.clear();
+        mWindowStart = -1;
+        mWindowEnd = -1;
+    }
+
+    private static int max(int[] values) {
+        int max = RecyclerView.NO_POSITION;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static int min(int[] values) {
+        int min = Integer.MAX_VALUE;
+        for (int value : values) {
+            if (value != RecyclerView.NO_POSITION) {
+                min = Math.min(min, value);
+            }
+        }
+        return min == Integer.MAX_VALUE ? RecyclerView.NO_POSITION : min;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.xyzreader.ui;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.xyzreader.R;
+import com.example.xyzreader.data.ArticleDao;
+import com.example.xyzreader.data.UpdaterService;
+
+/**
+ * Stores the thumbnails of the newest articles in the image disk cache after a sync, so the first
+ * scroll after a refresh does not wait on the network. Started through
+ * {@link UpdaterService#ACTION_SYNCED}; skipped on metered networks.
+ */
+public class ThumbnailWarmUpService extends IntentService {
+    private static final String TAG = "ThumbnailWarmUpService";
+
+    /** Download allowance of one warm-up. */
+    private static final long BYTE_BUDGET = 4L * 1024 * 1024;
+    private static final long TIMEOUT_MILLIS = 30 * 1000;
+
+    public ThumbnailWarmUpService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!getResources().getBoolean(R.bool.warm_up_thumbnails)) {
+            return;
+        }
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        if (cm.isActiveNetworkMetered()) {
+            Log.i(TAG, "Metered network, not warming up thumbnails.");
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        int stored = ImagePipeline.getInstance(this).warmUpThumbnails(
+                ArticleDao.getInstance(this).getListSnapshot(),
+                getResources().getInteger(R.integer.warm_up_thumbnail_count),
+                BYTE_BUDGET, TIMEOUT_MILLIS);
+        Log.i(TAG, "Warmed up " + stored + " thumbnails in "
+                + (SystemClock.elapsedRealtime() - start) + " ms.");
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.xyzreader.ui;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * Keeps the image loads of a list's rows in step with the viewport: rows that intersect it load
+ * at {@link ImagePipeline#PRIORITY_VISIBLE}, rows laid out beyond its edges at
+ * {@link ImagePipeline#PRIORITY_PREFETCH}. Updated on every scroll and layout pass, so it
+ * walks only the attached children and allocates nothing.
+ */
+class ViewportImageScheduler extends RecyclerView.OnScrollListener
+        implements View.OnLayoutChangeListener {
+
+    /** Implemented by view holders whose image load should follow the viewport. */
+    interface ImageHolder {
+        void setImagePriority(int priority);
+    }
+
+    private final RecyclerView mRecyclerView;
+
+    ViewportImageScheduler(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    void attach() {
+        mRecyclerView.addOnScrollListener(this);
+        mRecyclerView.addOnLayoutChangeListener(this);
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        update();
+    }
+
+    @Override
+    public void onLayoutChange(View v, int left, int top, int right, int bottom,
+            int oldLeft, int oldTop, int oldRight, int oldBottom) {
+        update();
+    }
+
+    void update() {
+        final int viewportTop = mRecyclerView.getPaddingTop();
+        final int viewportBottom = mRecyclerView.getHeight() - mRecyclerView.getPaddingBottom();
+        for (int i = 0, count = mRecyclerView.getChildCount(); i < count; i++) {
+            View child = mRecyclerView.getChildAt(i);
+            RecyclerView.ViewHolder holder = mRecyclerView.getChildViewHolder(child);
+            if (holder instanceof ImageHolder) {
+                boolean visible = child.getBottom() > viewportTop && child.getTop() < viewportBottom;
+                ((ImageHolder) holder).setImagePriority(visible
+                        ? ImagePipeline.PRIORITY_VISIBLE : ImagePipeline.PRIORITY_PREFETCH);
+            }
+        }
+    }
+}
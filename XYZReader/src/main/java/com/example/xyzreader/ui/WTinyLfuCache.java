@@ -0,0 +1,285 @@
+package com.example.xyzreader.ui;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache with the W-TinyLFU policy, as a drop-in for {@link android.util.LruCache}.
+ * <p>
+ * New entries land in a small LRU window. When the window overflows, its eldest entry becomes a
+ * candidate for the main space, a segmented LRU of probation and protected regions, and is only
+ * admitted if a {@link FrequencySketch} says it has been used more often than the entry it would
+ * evict. A one-off scan therefore passes through the window without flushing the entries users
+ * keep coming back to. Entries hit while on probation are promoted to the protected region.
+ * <p>
+ * Methods are synchronized; {@link #entryRemoved} is called while the lock is held.
+ */
+public class WTinyLfuCache<K, V> {
+    /** Share of the capacity given to the admission window. */
+    private static final float WINDOW_SHARE = 0.2f;
+    /** Share of the main space given to the protected region. */
+    private static final float PROTECTED_SHARE = 0.8f;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node<V> {
+        V mValue;
+        int mSize;
+        int mRegion;
+    }
+
+    private final HashMap<K, Node<V>> mNodes = new HashMap<K, Node<V>>();
+    private final LinkedHashMap<K, Node<V>> mWindow = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> mProbation = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> mProtected = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+    private final FrequencySketch mSketch;
+    /** Keys moved from the window to probation by the current {@link #evict}, eldest first. */
+    private final ArrayDeque<K> mCandidates = new ArrayDeque<K>();
+
+    private final int mMaxSize;
+    private final int mWindowMaxSize;
+    private final int mProtectedMaxSize;
+    private int mWindowSize;
+    private int mProbationSize;
+    private int mProtectedSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mRejectionCount;
+
+    /**
+     * @param maxSize capacity in the units of {@link #sizeOf}
+     * @param expectedEntries roughly how many entries fit, used to size the frequency sketch
+     */
+    public WTinyLfuCache(int maxSize, int expectedEntries) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mWindowMaxSize = Math.max(1, (int) (maxSize * WINDOW_SHARE));
+        mProtectedMaxSize = (int) ((maxSize - mWindowMaxSize) * PROTECTED_SHARE);
+        mSketch = new FrequencySketch(expectedEntries);
+    }
+
+    public final synchronized V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        mSketch.increment(key.hashCode());
+        Node<V> node = mNodes.get(key);
+        if (node == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        if (node.mRegion == WINDOW) {
+            mWindow.get(key);
+        } else if (node.mRegion == PROTECTED) {
+            mProtected.get(key);
+        } else {
+            promote(key, node);
+        }
+        return node.mValue;
+    }
+
+    /** Caches {@code value} for {@code key} and returns the value it replaced, if any. */
+    public final synchronized V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        final int size = safeSizeOf(key, value);
+        Node<V> node = mNodes.get(key);
+        V previous = null;
+        if (node != null) {
+            previous = node.mValue;
+            node.mValue = value;
+            addToRegionSize(node.mRegion, size - node.mSize);
+            node.mSize = size;
+            regionOf(node.mRegion).get(key);
+            entryRemoved(false, key, previous, value);
+        } else {
+            mSketch.increment(key.hashCode());
+            node = new Node<V>();
+            node.mValue = value;
+            node.mSize = size;
+            node.mRegion = WINDOW;
+            mNodes.put(key, node);
+            mWindow.put(key, node);
+            mWindowSize += size;
+        }
+
+        evict();
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        Node<V> node = mNodes.remove(key);
+        if (node == null) {
+            return null;
+        }
+
+        regionOf(node.mRegion).remove(key);
+        addToRegionSize(node.mRegion, -node.mSize);
+        entryRemoved(false, key, node.mValue, null);
+        return node.mValue;
+    }
+
+    /**
+     * Evicts entries until the total size is at most {@code maxSize}, taking probation entries
+     * first, then the window, then protected entries, least recently used first in each.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        while (size() > maxSize) {
+            LinkedHashMap<K, Node<V>> region = !mProbation.isEmpty() ? mProbation
+                    : !mWindow.isEmpty() ? mWindow : mProtected;
+            if (region.isEmpty()) {
+                break;
+            }
+            evictEldest(region);
+        }
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public final synchronized int size() {
+        return mWindowSize + mProbationSize + mProtectedSize;
+    }
+
+    public final synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public final synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    /** Candidates from the window that lost the frequency contest and were dropped. */
+    public final synchronized int rejectionCount() {
+        return mRejectionCount;
+    }
+
+    /** Returns the size of one entry in user-defined units. The default is 1. */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Called for entries that were evicted or removed, or whose value was replaced by
+     * {@link #put}; {@code newValue} is the replacement, or {@code null}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    private void evict() {
+        // Everything that leaves the window this round is a candidate for the main space. They
+        // are tracked by key: probation also takes entries demoted from the protected region,
+        // so its order alone does not tell them apart.
+        while (mWindowSize > mWindowMaxSize && mWindow.size() > 1) {
+            Map.Entry<K, Node<V>> eldest = mWindow.entrySet().iterator().next();
+            mCandidates.addLast(eldest.getKey());
+            moveTo(eldest.getKey(), eldest.getValue(), PROBATION);
+        }
+
+        while (size() > mMaxSize) {
+            if (mProbation.isEmpty()) {
+                evictEldest(!mWindow.isEmpty() ? mWindow : mProtected);
+                continue;
+            }
+
+            final K victim = mProbation.keySet().iterator().next();
+            final K candidate = mCandidates.peekFirst();
+            if (candidate == null || candidate.equals(victim)) {
+                // No candidate, or nothing older on probation to weigh it against.
+                evictEntry(victim);
+                mCandidates.remove(victim);
+                continue;
+            }
+
+            // The candidate stays as long as it beats each victim in turn.
+            if (mSketch.frequency(candidate.hashCode()) > mSketch.frequency(victim.hashCode())) {
+                evictEntry(victim);
+            } else {
+                evictEntry(candidate);
+                mCandidates.pollFirst();
+                mRejectionCount++;
+            }
+        }
+        mCandidates.clear();
+    }
+
+    private void promote(K key, Node<V> node) {
+        moveTo(key, node, PROTECTED);
+        while (mProtectedSize > mProtectedMaxSize && mProtected.size() > 1) {
+            Map.Entry<K, Node<V>> eldest = mProtected.entrySet().iterator().next();
+            moveTo(eldest.getKey(), eldest.getValue(), PROBATION);
+        }
+    }
+
+    private void moveTo(K key, Node<V> node, int region) {
+        regionOf(node.mRegion).remove(key);
+        addToRegionSize(node.mRegion, -node.mSize);
+        node.mRegion = region;
+        regionOf(region).put(key, node);
+        addToRegionSize(region, node.mSize);
+    }
+
+    private void evictEldest(LinkedHashMap<K, Node<V>> region) {
+        evictEntry(region.keySet().iterator().next());
+    }
+
+    private void evictEntry(K key) {
+        Node<V> node = mNodes.remove(key);
+        regionOf(node.mRegion).remove(key);
+        addToRegionSize(node.mRegion, -node.mSize);
+        mEvictionCount++;
+        entryRemoved(true, key, node.mValue, null);
+    }
+
+    private LinkedHashMap<K, Node<V>> regionOf(int region) {
+        return region == WINDOW ? mWindow : region == PROBATION ? mProbation : mProtected;
+    }
+
+    private void addToRegionSize(int region, int delta) {
+        if (region == WINDOW) {
+            mWindowSize += delta;
+        } else if (region == PROBATION) {
+            mProbationSize += delta;
+        } else {
+            mProtectedSize += delta;
+        }
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int size = sizeOf(key, value);
+        if (size < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("WTinyLfuCache[size=%d/%d, window=%d, probation=%d, protected=%d, "
+                        + "hits=%d, misses=%d, evictions=%d, rejections=%d]",
+                size(), mMaxSize, mWindowSize, mProbationSize, mProtectedSize,
+                mHitCount, mMissCount, mEvictionCount, mRejectionCount);
+    }
+}
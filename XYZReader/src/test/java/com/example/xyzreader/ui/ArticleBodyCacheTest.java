@@ -0,0 +1,92 @@
+package com.example.xyzreader.ui;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArticleBodyCacheTest {
+
+    @Test
+    public void singleLineBreakStaysInParagraph() {
+        assertEquals(Arrays.asList("one<br>two"),
+                ArticleBodyCache.splitParagraphs("one<br>two"));
+    }
+
+    @Test
+    public void splitsAtLineBreakRuns() {
+        assertEquals(Arrays.asList("one", "two", "three"),
+                ArticleBodyCache.splitParagraphs("one<br><br>two<BR/> <br />\n<br>three"));
+    }
+
+    @Test
+    public void splitsAtParagraphTagsAndBlankLines() {
+        assertEquals(Arrays.asList("one", "two", "three", "four"),
+                ArticleBodyCache.splitParagraphs(
+                        "<p>one</p><p class=\"x\">two</p>three\n \t\nfour"));
+    }
+
+    @Test
+    public void dropsWhitespaceOnlyParagraphs() {
+        assertEquals(Arrays.asList("one", "two"),
+                ArticleBodyCache.splitParagraphs(
+                        "  <p> </p>\n\n<br><br> one <p>\t</p> two \n\n \n\n"));
+        assertEquals(Collections.<String>emptyList(),
+                ArticleBodyCache.splitParagraphs(" \n\n<br><br>\t"));
+    }
+
+    @Test
+    public void doesNotSplitParagraphTagPrefixes() {
+        assertEquals(Arrays.asList("<pre>x</pre>"),
+                ArticleBodyCache.splitParagraphs("<pre>x</pre>"));
+    }
+
+    @Test
+    public void splitsLongParagraphAtNextLineBreak() {
+        final String line = repeat('a', 1500);
+        List<String> paragraphs = ArticleBodyCache.splitParagraphs(
+                line + "<br>" + line + "<br>" + line + "\n" + line);
+
+        assertEquals(Arrays.asList(line + "<br>" + line, line + "\n" + line), paragraphs);
+        assertTrue(paragraphs.get(0).length() >= ArticleBodyCache.MAX_PARAGRAPH_CHARS);
+    }
+
+    @Test
+    public void keepsLongParagraphWithoutLineBreaks() {
+        final String text = repeat('a', ArticleBodyCache.MAX_PARAGRAPH_CHARS * 2);
+        assertEquals(Arrays.asList(text), ArticleBodyCache.splitParagraphs(text));
+    }
+
+    @Test
+    public void firstChunkEndsAtWholeParagraphPastLimit() {
+        final String thousand = repeat('a', 1000);
+        List<String> sources = Arrays.asList(thousand, thousand, thousand, thousand, thousand);
+        assertEquals(3, ArticleBodyCache.firstChunkEnd(sources));
+
+        List<String> uneven = Arrays.asList(thousand, repeat('a', 2500), thousand);
+        assertEquals(2, ArticleBodyCache.firstChunkEnd(uneven));
+    }
+
+    @Test
+    public void firstChunkHasAtLeastOneParagraph() {
+        List<String> huge = Arrays.asList(repeat('a', ArticleBodyCache.FIRST_CHUNK_CHARS * 2), "b");
+        assertEquals(1, ArticleBodyCache.firstChunkEnd(huge));
+        assertEquals(0, ArticleBodyCache.firstChunkEnd(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void shortBodyIsOneChunk() {
+        List<String> sources = ArticleBodyCache.splitParagraphs("one<br><br>two<p>three");
+        assertEquals(sources.size(), ArticleBodyCache.firstChunkEnd(sources));
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.xyzreader.ui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks how {@link ImageUrlTemplate} expands variant URLs. Loads that use them, and their
+ * fallback to feed URLs, are covered by the instrumentation test ImagePipelineVariantTest.
+ */
+public class ImageUrlTemplateTest {
+    @Test
+    public void appendsWidthAsQuery() {
+        ImageUrlTemplate template = new ImageUrlTemplate("{url}?w={width}", 1f);
+        assertEquals("http://h/a.jpg?w=128", template.variantUrl("http://h/a.jpg", 100));
+    }
+
+    @Test
+    public void joinsExistingQueryWithAmpersand() {
+        ImageUrlTemplate template = new ImageUrlTemplate("{url}?w={width}", 1f);
+        assertEquals("http://h/a.jpg?id=7&w=128", template.variantUrl("http://h/a.jpg?id=7", 100));
+    }
+
+    @Test
+    public void encodesUrlWithoutTouchingTemplateQuery() {
+        ImageUrlTemplate template = new ImageUrlTemplate("http://cdn/{url_encoded}?w={width}", 2f);
+        assertEquals("http://cdn/http%3A%2F%2Fh%2Fa.jpg%3Fid%3D7?w=256",
+                template.variantUrl("http://h/a.jpg?id=7", 200));
+    }
+
+    @Test
+    public void noTemplateMeansFeedUrls() {
+        assertNull(new ImageUrlTemplate(null, 1f).variantUrl("http://h/a.jpg", 100));
+        assertNull(new ImageUrlTemplate("{url}", 1f).variantUrl("http://h/a.jpg", 100));
+    }
+}